@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.whitesource.agent.hash.ChecksumUtils;
+import org.whitesource.agent.hash.HashAlgorithm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares SHA-1 and MD5 calculation of a single file through the agent-api utilities (two reads)
+ * with the {@link ChecksumEngine} streaming and memory mapped paths (one read).
+ * <p>
+ * Throughput is the file size divided by the reported average time. Fixture files are generated in the
+ * temporary directory before each trial, the 4 GB one requires as much free disk space.
+ * <pre>
+ * java -jar target/benchmarks.jar ChecksumEngineBenchmark -p sizeMb=1,64,1024
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ChecksumEngineBenchmark {
+
+    /* --- Parameters --- */
+
+    @Param({"1", "16", "256", "1024", "4096"})
+    private int sizeMb;
+
+    @Param({"agent-api", "stream", "mmap"})
+    private String strategy;
+
+    /* --- Members --- */
+
+    private File file;
+
+    private ChecksumEngine engine;
+
+    /* --- Setup --- */
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Fixtures.createRandomFile(Fixtures.createTempDir("checksum-engine"), "artifact.bin", sizeMb * 1024L * 1024L);
+        engine = new ChecksumEngine();
+        engine.setMappingThreshold("mmap".equals(strategy) ? 1 : 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.delete(file.getParentFile());
+    }
+
+    /* --- Benchmarks --- */
+
+    @Benchmark
+    public void sha1AndMd5(Blackhole blackhole) throws IOException {
+        if ("agent-api".equals(strategy)) {
+            blackhole.consume(ChecksumUtils.calculateSHA1(file));
+            blackhole.consume(ChecksumUtils.calculateHash(file, HashAlgorithm.MD5));
+        } else {
+            blackhole.consume(engine.calculate(file));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Path;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares listing the default module through a file set with the original <code>**&#47;*.extension</code>
+ * includes against the {@link DefaultPathScanner}, sequential and parallel.
+ * <p>
+ * The fixture tree holds empty files only: per directory a few matching archives and several source files,
+ * plus a <code>.git</code> directory and a <code>node_modules</code> tree that the scanner prunes.
+ * <pre>
+ * java -jar target/benchmarks.jar DefaultModuleScanBenchmark -p directories=10000
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DefaultModuleScanBenchmark {
+
+    /* --- Parameters --- */
+
+    @Param({"1000", "10000"})
+    private int directories;
+
+    @Param({"fileset", "walker", "parallel-walker"})
+    private String strategy;
+
+    /* --- Members --- */
+
+    private File dir;
+
+    private Project project;
+
+    private List<String> excludedDirs;
+
+    /* --- Setup --- */
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Fixtures.createTempDir("default-module");
+        for (int i = 0; i < directories; i++) {
+            String parent = "src/package" + (i % 20) + "/sub" + (i % 200) + "/dir" + i + "/";
+            Fixtures.createEmptyFile(dir, parent + "artifact-" + i + ".jar");
+            Fixtures.createEmptyFile(dir, parent + "native-" + i + ".so");
+            for (int j = 0; j < 8; j++) {
+                Fixtures.createEmptyFile(dir, parent + "Source" + j + ".java");
+            }
+            Fixtures.createEmptyFile(dir, ".git/objects/" + (i % 256) + "/object-" + i);
+            Fixtures.createEmptyFile(dir, "node_modules/package" + i + "/lib/index.js");
+        }
+
+        project = Fixtures.createTask(dir).getProject();
+        excludedDirs = Arrays.asList(".git", "node_modules");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.delete(dir);
+    }
+
+    /* --- Benchmarks --- */
+
+    @Benchmark
+    public String[] list() {
+        Path path = new Path(project);
+        if ("fileset".equals(strategy)) {
+            FileSet fs = new FileSet();
+            fs.setProject(project);
+            fs.setDir(dir);
+            List<String> includes = new ArrayList<String>();
+            for (String extension : Constants.DEFAULT_SCAN_EXTENSIONS) {
+                includes.add("**/*." + extension);
+            }
+            fs.setIncludes(StringUtils.join(includes, ","));
+            path.addFileset(fs);
+        } else {
+            int parallelism = "parallel-walker".equals(strategy) ? Runtime.getRuntime().availableProcessors() : 1;
+            path.add(new DefaultPathScanner(dir, Constants.DEFAULT_SCAN_EXTENSIONS, excludedDirs, parallelism));
+        }
+        return path.list();
+    }
+}
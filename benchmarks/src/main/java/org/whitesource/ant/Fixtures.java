@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Path;
+import org.whitesource.agent.api.dispatch.CheckPolicyComplianceResult;
+import org.whitesource.agent.api.model.*;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates synthetic fixture files for the benchmarks.
+ */
+final class Fixtures {
+
+    /* --- Static members --- */
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    /* --- Constructors --- */
+
+    private Fixtures() {
+        // avoid instantiation
+    }
+
+    /* --- Static methods --- */
+
+    static File createTempDir(String prefix) throws IOException {
+        return Files.createTempDirectory("whitesource-" + prefix).toFile();
+    }
+
+    /**
+     * Creates a file of the given size filled with pseudo random bytes, seeded by the file name so that
+     * repeated runs hash the same content.
+     */
+    static File createRandomFile(File dir, String name, long size) throws IOException {
+        File file = new File(dir, name);
+        createParent(file);
+
+        Random random = new Random(name.hashCode());
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (long written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                os.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Creates a jar holding the given number of class-like entries of pseudo random bytes.
+     *
+     * @param compress whether to deflate the entries, random bytes barely compress so huge archives are written
+     *                 without compression to keep the setup time reasonable.
+     */
+    static File createJar(File dir, String name, int entries, int entrySize, boolean compress) throws IOException {
+        File file = new File(dir, name);
+        createParent(file);
+
+        Random random = new Random(name.hashCode());
+        byte[] content = new byte[Math.min(entrySize, CHUNK_SIZE)];
+        try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            zos.setLevel(compress ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+            zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zos.write("Manifest-Version: 1.0\r\n".getBytes(StandardCharsets.UTF_8));
+            zos.closeEntry();
+            for (int i = 0; i < entries; i++) {
+                zos.putNextEntry(new ZipEntry("org/example/" + name.replace('.', '_') + "/Class" + i + ".class"));
+                for (int written = 0; written < entrySize; written += content.length) {
+                    random.nextBytes(content);
+                    zos.write(content, 0, Math.min(content.length, entrySize - written));
+                }
+                zos.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Creates a JavaScript file made of the given number of small functions, varied by the file name.
+     */
+    static File createJavaScriptFile(File dir, String name, int functions) throws IOException {
+        File file = new File(dir, name);
+        createParent(file);
+
+        Random random = new Random(name.hashCode());
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write("/* " + name + " - synthetic fixture */\n");
+            for (int i = 0; i < functions; i++) {
+                writer.write("function f" + i + "(a, b) {\n");
+                writer.write("    // adds a constant to the arguments\n");
+                writer.write("    var c = " + random.nextInt() + ";\n");
+                writer.write("    return a + b + c;\n");
+                writer.write("}\n");
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Creates an empty file, for benchmarks listing files rather than reading them.
+     */
+    static File createEmptyFile(File dir, String name) throws IOException {
+        File file = new File(dir, name);
+        createParent(file);
+        if (!file.exists() && !file.createNewFile()) {
+            throw new IOException("Unable to create file " + file);
+        }
+        return file;
+    }
+
+    /**
+     * @return a task bound to a project without build listeners, so that its log messages are discarded.
+     */
+    static Task createTask(File baseDir) {
+        Project project = new Project();
+        project.setBaseDir(baseDir);
+        Task task = new Task() {
+        };
+        task.setProject(project);
+        return task;
+    }
+
+    /**
+     * @return a module including every file under the given directory.
+     */
+    static Module createModule(Project project, File dir) {
+        FileSet fs = new FileSet();
+        fs.setProject(project);
+        fs.setDir(dir);
+        fs.setIncludes("**/*");
+
+        Path path = new Path(project);
+        path.addFileset(fs);
+
+        Module module = new Module();
+        module.setName(dir.getName());
+        module.addPath(path);
+        return module;
+    }
+
+    /**
+     * Creates an inventory of synthetic dependencies, without reading any file.
+     */
+    static List<AgentProjectInfo> createInventory(int modules, int dependenciesPerModule) {
+        Random random = new Random(modules * 31L + dependenciesPerModule);
+        byte[] digest = new byte[20];
+        List<AgentProjectInfo> projectInfos = new ArrayList<AgentProjectInfo>();
+        for (int i = 0; i < modules; i++) {
+            AgentProjectInfo projectInfo = new AgentProjectInfo();
+            projectInfo.setCoordinates(new Coordinates(null, "module-" + i, null));
+            for (int j = 0; j < dependenciesPerModule; j++) {
+                String fileName = "artifact-" + i + "-" + j + ".jar";
+                DependencyInfo dependency = new DependencyInfo();
+                dependency.setFilename(fileName);
+                dependency.setArtifactId(fileName);
+                dependency.setSystemPath("/builds/project/module-" + i + "/lib/" + fileName);
+                random.nextBytes(digest);
+                dependency.setSha1(IoUtils.toHex(digest));
+                random.nextBytes(digest);
+                dependency.addChecksum(ChecksumType.SHA1_OTHER_PLATFORM, IoUtils.toHex(digest));
+                projectInfo.getDependencies().add(dependency);
+            }
+            projectInfos.add(projectInfo);
+        }
+        return projectInfos;
+    }
+
+    /**
+     * Creates a policy check result of new projects with synthetic libraries, each with a bundled library,
+     * the given share of them being rejected.
+     */
+    static CheckPolicyComplianceResult createPolicyResult(int projects, int librariesPerProject, double rejectionRate) {
+        Random random = new Random(projects * 31L + librariesPerProject);
+        CheckPolicyComplianceResult result = new CheckPolicyComplianceResult();
+        result.setOrganization("benchmark");
+        for (int i = 0; i < projects; i++) {
+            PolicyCheckResourceNode project = new PolicyCheckResourceNode(createResource("module-" + i), null);
+            for (int j = 0; j < librariesPerProject; j++) {
+                RequestPolicyInfo policy = new RequestPolicyInfo();
+                boolean rejected = random.nextDouble() < rejectionRate;
+                policy.setDisplayName(rejected ? "Rejected licenses" : "Approved licenses");
+                policy.setActionType(rejected ? "Reject" : "Approve");
+                PolicyCheckResourceNode library = new PolicyCheckResourceNode(createResource("artifact-" + i + "-" + j + ".jar"), policy);
+                library.getChildren().add(new PolicyCheckResourceNode(createResource("bundled-" + i + "-" + j + ".jar"), null));
+                project.getChildren().add(library);
+            }
+            result.getNewProjects().put("module-" + i, project);
+        }
+        return result;
+    }
+
+    private static ResourceInfo createResource(String displayName) {
+        ResourceInfo resource = new ResourceInfo();
+        resource.setDisplayName(displayName);
+        return resource;
+    }
+
+    /**
+     * @return heap in use after a full collection, peaks are reset to it.
+     */
+    static long collectAndResetHeapPeaks() {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return peak heap in use since the last reset.
+     */
+    static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static void createParent(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+    }
+}
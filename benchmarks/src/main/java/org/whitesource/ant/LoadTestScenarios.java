@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * End to end load test of the whitesource task, run from an ant project over generated trees of artifacts against
+ * a local {@link StandInServer}, so that performance claims can be checked without the White Source service.
+ * <p>
+ * For each tree size a build file declaring one module per hundred artifacts is generated, and three scenarios
+ * are run: an update with a cold checksum cache, the same update with a warm cache, and a policy check overlapping
+ * the update. Fingerprints are not shared between tasks, so that the warm scenario only reuses the checksum cache. Each scenario reports its outcome, end to end time, requests sent, bytes on the wire and peak heap.
+ * <pre>
+ * java -Xmx1g -cp target/benchmarks.jar org.whitesource.ant.LoadTestScenarios [sizes] [latency ms] [payload limit KB]
+ *      [rejection rate] [batch size] [transport]
+ * java -Xmx1g -cp target/benchmarks.jar org.whitesource.ant.LoadTestScenarios 10,1000,50000 200 1024 0.5 10 streaming
+ * </pre>
+ * The stand-in answers requests larger than the payload limit with a 413 status and rejects the given share of
+ * policy checks, a batch size of 0 sends the whole inventory in a single update request.
+ */
+public class LoadTestScenarios {
+
+    /* --- Static members --- */
+
+    private static final int ARTIFACTS_PER_MODULE = 100;
+
+    private static final String BUILD_FILE = "build.xml";
+
+    /* --- Main --- */
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = (args.length > 0 ? args[0] : "10,1000,50000").split(",");
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        long maxPayloadKb = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        double rejectionRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        String transport = args.length > 5 ? args[5] : Constants.TRANSPORT_STREAMING;
+
+        try (StandInServer server = new StandInServer()) {
+            server.setLatency(latency);
+            server.setMaxPayload(maxPayloadKb * 1024);
+            server.setRejectionRate(rejectionRate);
+
+            for (String size : sizes) {
+                int artifacts = Integer.parseInt(size.trim());
+                File dir = Fixtures.createTempDir("load-test");
+                try {
+                    long start = System.nanoTime();
+                    createTree(dir, artifacts, batchSize, transport);
+                    System.out.println(artifacts + " artifacts, generated in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+                    run("update, cold checksum cache", dir, "update", server);
+                    run("update, warm checksum cache", dir, "update", server);
+                    run("check policies and update", dir, "check-policies", server);
+                } finally {
+                    Fixtures.delete(dir);
+                }
+            }
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private static void run(String scenario, File dir, String target, StandInServer server) {
+        Project project = new Project();
+        project.init();
+        project.setUserProperty("wss.url", server.getUrl());
+        ProjectHelper.configureProject(project, new File(dir, BUILD_FILE));
+
+        server.reset();
+        long baseline = Fixtures.collectAndResetHeapPeaks();
+        long start = System.nanoTime();
+        String outcome = "succeeded";
+        BuildException failure = null;
+        project.fireBuildStarted();
+        try {
+            project.executeTarget(target);
+        } catch (BuildException e) {
+            failure = e;
+            outcome = "failed (" + e.getMessage() + ")";
+        } finally {
+            // as the ant launcher does, so that state scoped to the build is released
+            project.fireBuildFinished(failure);
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        long peak = Fixtures.getPeakHeap();
+
+        System.out.println("  " + scenario + " " + outcome + " in " + millis + " ms: "
+                + server.getRequests() + " requests (" + server.getPolicyChecks() + " policy checks, "
+                + server.getRejections() + " rejected, " + server.getFaults() + " refused), "
+                + server.getDependencies() + " dependencies, " + server.getBytes() + " bytes on the wire, "
+                + "peak heap " + toMb(peak) + " MB over a " + toMb(baseline) + " MB baseline");
+    }
+
+    /**
+     * Generates the artifacts, in directories of a hundred per module, and the build file running the task over them.
+     */
+    private static void createTree(File dir, int artifacts, int batchSize, String transport) throws IOException {
+        int modules = (artifacts + ARTIFACTS_PER_MODULE - 1) / ARTIFACTS_PER_MODULE;
+        for (int i = 0; i < artifacts; i++) {
+            Fixtures.createJar(dir, "module-" + i / ARTIFACTS_PER_MODULE + "/lib/artifact-" + i + ".jar", 2, 512, false);
+        }
+
+        StringBuilder moduleElements = new StringBuilder();
+        for (int i = 0; i < modules; i++) {
+            moduleElements.append("            <module name=\"module-").append(i).append("\">\n")
+                    .append("                <path><fileset dir=\"module-").append(i).append("\" includes=\"**/*.jar\"/></path>\n")
+                    .append("            </module>\n");
+        }
+        String task = "        <whitesource apikey=\"stand-in\" wssurl=\"${wss.url}\" product=\"load-test\" productversion=\"1.0\"\n"
+                + "                     transport=\"" + transport + "\" batchsize=\"" + batchSize + "\" cachefile=\"checksums.cache\"\n"
+                + "                     sharefingerprints=\"false\">\n"
+                + moduleElements
+                + "            %s"
+                + "        </whitesource>\n";
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, BUILD_FILE)), StandardCharsets.UTF_8)) {
+            writer.write("<project name=\"load-test\" default=\"update\" basedir=\".\">\n");
+            writer.write("    <taskdef name=\"whitesource\" classname=\"" + WhitesourceTask.class.getName() + "\"/>\n");
+            writer.write("    <target name=\"update\">\n");
+            writer.write(String.format(task, ""));
+            writer.write("    </target>\n");
+            writer.write("    <target name=\"check-policies\">\n");
+            writer.write(String.format(task, "<checkpolicies reportdir=\"reports\" failonrejection=\"true\"/>\n"));
+            writer.write("    </target>\n");
+            writer.write("</project>\n");
+        }
+    }
+
+    private static long toMb(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.tools.ant.Task;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ModuleScanner#scan}, listing and fingerprinting a whole module, on synthetic fixture trees:
+ * <ul>
+ *     <li><code>small-jars</code> - 2000 jars of 16 entries, 2 KB each, across 100 directories</li>
+ *     <li><code>huge-archives</code> - 4 uncompressed jars of 512 MB each</li>
+ *     <li><code>mixed-js</code> - 1000 JavaScript files of 50 to 500 functions next to 200 small jars</li>
+ *     <li><code>straggler</code> - 1000 small jars and an uncompressed 1 GB ear listed after them</li>
+ * </ul>
+ * Each invocation starts with an empty content index and no checksum cache, so every file is hashed.
+ * <pre>
+ * java -jar target/benchmarks.jar ModuleScanBenchmark.scan -p fixture=small-jars,mixed-js -p threads=1,8
+ * </pre>
+ * JavaScript checksums are calculated on the checksum threads, or with <code>javaScriptThreads</code> above zero
+ * on as many threads dedicated to them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ModuleScanBenchmark {
+
+    /* --- Parameters --- */
+
+    @Param({"small-jars", "huge-archives", "mixed-js", "straggler"})
+    private String fixture;
+
+    @Param({"1", "4"})
+    private int threads;
+
+    @Param({"0", "4"})
+    private int javaScriptThreads;
+
+    /* --- Members --- */
+
+    private File dir;
+
+    private Module module;
+
+    private ModuleScanner scanner;
+
+    private JavaScriptHasher javaScriptHasher;
+
+    /* --- Setup --- */
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Fixtures.createTempDir("module-scan");
+        if ("small-jars".equals(fixture)) {
+            for (int i = 0; i < 2000; i++) {
+                Fixtures.createJar(dir, "lib" + (i % 100) + "/artifact-" + i + ".jar", 16, 2 * 1024, true);
+            }
+        } else if ("huge-archives".equals(fixture)) {
+            for (int i = 0; i < 4; i++) {
+                Fixtures.createJar(dir, "dist/bundle-" + i + ".jar", 512, 1024 * 1024, false);
+            }
+        } else if ("mixed-js".equals(fixture)) {
+            for (int i = 0; i < 1000; i++) {
+                Fixtures.createJavaScriptFile(dir, "web/module" + (i % 50) + "/script-" + i + ".js", 50 + (i % 10) * 50);
+            }
+            for (int i = 0; i < 200; i++) {
+                Fixtures.createJar(dir, "lib/artifact-" + i + ".jar", 16, 2 * 1024, true);
+            }
+        } else if ("straggler".equals(fixture)) {
+            for (int i = 0; i < 1000; i++) {
+                Fixtures.createJar(dir, "lib/artifact-" + i + ".jar", 16, 2 * 1024, true);
+            }
+            Fixtures.createJar(dir, "lib/zz-application.ear", 1024, 1024 * 1024, false);
+        } else {
+            throw new IllegalArgumentException("Unknown fixture " + fixture);
+        }
+
+        Task task = Fixtures.createTask(dir);
+        module = Fixtures.createModule(task.getProject(), dir);
+        scanner = new ModuleScanner(task, new ChecksumEngine(), threads);
+        javaScriptHasher = new JavaScriptHasher(javaScriptThreads, 0);
+        scanner.setJavaScriptHasher(javaScriptHasher);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        javaScriptHasher.close();
+        Fixtures.delete(dir);
+    }
+
+    /* --- Benchmarks --- */
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        scanner.setContentIndex(new ContentIndex());
+        blackhole.consume(scanner.scan(module));
+    }
+}
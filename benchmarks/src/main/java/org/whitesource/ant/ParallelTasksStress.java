@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.Parallel;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Path;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+import org.whitesource.agent.api.model.ChecksumType;
+import org.whitesource.agent.api.model.DependencyInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stress test of White Source tasks run concurrently under ant's <code>parallel</code> task.
+ * <p>
+ * Each task captures an inventory made of a <code>lib</code> tree shared by all tasks and a tree of its own,
+ * with and without sharing fingerprints between tasks. Every captured dependency is checked against the SHA-1
+ * calculated independently, and the run fails on the first mismatch or task failure.
+ * <pre>
+ * java -cp target/benchmarks.jar org.whitesource.ant.ParallelTasksStress [tasks] [shared jars] [rounds]
+ * </pre>
+ */
+public class ParallelTasksStress {
+
+    /* --- Static members --- */
+
+    private static final int OWN_JARS = 50;
+
+    /* --- Main --- */
+
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int sharedJars = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        File dir = Fixtures.createTempDir("parallel-tasks");
+        try {
+            for (int i = 0; i < sharedJars; i++) {
+                Fixtures.createJar(dir, "lib/group" + (i % 20) + "/shared-" + i + ".jar", 8, 4 * 1024, true);
+            }
+            for (int task = 0; task < tasks; task++) {
+                for (int i = 0; i < OWN_JARS; i++) {
+                    Fixtures.createJar(dir, "app" + task + "/lib/own-" + i + ".jar", 8, 4 * 1024, true);
+                }
+            }
+            Map<String, String> expected = calculateExpected(dir);
+
+            for (int round = 0; round < rounds; round++) {
+                for (boolean share : new boolean[]{false, true}) {
+                    SharedFingerprintStore.getInstance().clear();
+                    long start = System.nanoTime();
+                    File[] captures = runTasks(dir, tasks, share);
+                    long millis = (System.nanoTime() - start) / 1000000;
+                    int checked = verify(captures, expected, tasks * (sharedJars + OWN_JARS));
+                    System.out.println("round " + round + ", shared fingerprints " + share + ": " + tasks + " tasks, "
+                            + checked + " dependencies verified in " + millis + " ms");
+                }
+            }
+        } finally {
+            Fixtures.delete(dir);
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private static File[] runTasks(File dir, int tasks, boolean share) {
+        Project project = Fixtures.createTask(dir).getProject();
+        Parallel parallel = new Parallel();
+        parallel.setProject(project);
+        parallel.setThreadCount(tasks);
+
+        File[] captures = new File[tasks];
+        for (int i = 0; i < tasks; i++) {
+            captures[i] = new File(dir, "captures/task-" + i + ".gz");
+
+            WhitesourceTask task = new WhitesourceTask();
+            task.setProject(project);
+            task.setTaskName("whitesource-" + i);
+            task.init();
+            task.setApikey("stress");
+            task.setThreads(4);
+            task.setSharefingerprints(share);
+            task.setCapturefile(captures[i]);
+
+            Module module = new Module();
+            module.setName("app" + i);
+            module.addPath(createPath(project, new File(dir, "lib")));
+            module.addPath(createPath(project, new File(dir, "app" + i)));
+            task.addModule(module);
+
+            parallel.addTask(task);
+        }
+        parallel.execute();
+        return captures;
+    }
+
+    private static Path createPath(Project project, File dir) {
+        FileSet fs = new FileSet();
+        fs.setProject(project);
+        fs.setDir(dir);
+        fs.setIncludes("**/*.jar");
+        Path path = new Path(project);
+        path.addFileset(fs);
+        return path;
+    }
+
+    private static Map<String, String> calculateExpected(File dir) throws IOException {
+        Map<String, String> expected = new HashMap<String, String>();
+        ChecksumEngine engine = new ChecksumEngine();
+        collect(dir, engine, expected);
+        return expected;
+    }
+
+    private static void collect(File file, ChecksumEngine engine, Map<String, String> expected) throws IOException {
+        File[] children = file.listFiles();
+        if (children == null) {
+            expected.put(file.getAbsolutePath(), engine.calculate(file).get(ChecksumType.SHA1));
+            return;
+        }
+        for (File child : children) {
+            collect(child, engine, expected);
+        }
+    }
+
+    private static int verify(File[] captures, Map<String, String> expected, int expectedCount) throws IOException {
+        int checked = 0;
+        for (File capture : captures) {
+            try (InventoryCaptureReader reader = new InventoryCaptureReader(capture)) {
+                reader.open();
+                AgentProjectInfo projectInfo;
+                while ((projectInfo = reader.next()) != null) {
+                    for (DependencyInfo dependency : projectInfo.getDependencies()) {
+                        String sha1 = expected.get(dependency.getSystemPath());
+                        if (sha1 == null || !sha1.equals(dependency.getSha1())) {
+                            throw new IllegalStateException("Wrong fingerprint of " + dependency.getSystemPath()
+                                    + " in " + capture + ": " + dependency.getSha1() + ", expected " + sha1);
+                        }
+                        checked++;
+                    }
+                }
+            }
+        }
+        if (checked != expectedCount) {
+            throw new IllegalStateException("Expected " + expectedCount + " dependencies, captured " + checked);
+        }
+        return checked;
+    }
+}
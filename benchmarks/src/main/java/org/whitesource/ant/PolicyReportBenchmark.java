@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.whitesource.agent.api.dispatch.CheckPolicyComplianceResult;
+import org.whitesource.agent.report.PolicyCheckReport;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Measures the time and peak heap of writing the policy check report of a synthetic result, with the legacy
+ * report or the single pass {@link PolicyReportWriter}.
+ * <p>
+ * Run each format in its own JVM with a fixed heap for comparable peaks, e.g.
+ * <pre>
+ * java -Xmx1g -cp target/benchmarks.jar org.whitesource.ant.PolicyReportBenchmark legacy 100 500
+ * java -Xmx1g -cp target/benchmarks.jar org.whitesource.ant.PolicyReportBenchmark html,json,csv 100 500
+ * </pre>
+ * The peak heap includes the result itself, which is reported separately as the baseline.
+ */
+public class PolicyReportBenchmark {
+
+    /* --- Main --- */
+
+    public static void main(String[] args) throws Exception {
+        String format = args.length > 0 ? args[0] : "html,json,csv";
+        int projects = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int libraries = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        File dir = Fixtures.createTempDir("policy-report");
+        try {
+            CheckPolicyComplianceResult result = Fixtures.createPolicyResult(projects, libraries, 0.05);
+            long baseline = Fixtures.collectAndResetHeapPeaks();
+
+            long start = System.nanoTime();
+            if (Constants.REPORT_FORMAT_LEGACY.equals(format)) {
+                new PolicyCheckReport(result).generate(dir, false);
+            } else {
+                new PolicyReportWriter(Arrays.asList(format.split(","))).write(result, dir);
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+            long peak = Fixtures.getPeakHeap();
+
+            System.out.println(format + " report, " + projects + " projects of " + libraries + " libraries: "
+                    + sizeOf(dir) + " bytes written in " + millis + " ms, peak heap " + toMb(peak) + " MB over a "
+                    + toMb(baseline) + " MB baseline");
+        } finally {
+            Fixtures.delete(dir);
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private static long sizeOf(File file) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            return file.length();
+        }
+        long size = 0;
+        for (File child : children) {
+            size += sizeOf(child);
+        }
+        return size;
+    }
+
+    private static long toMb(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.tools.ant.Task;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+import org.whitesource.agent.client.WssServiceException;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Exercises the streaming service client and the {@link RetryPolicy} against a fault injecting {@link StandInServer}.
+ * <p>
+ * Scenarios check that sequential requests reuse a single connection, that server errors and dropped connections
+ * are retried until the requests succeed, and that a slow service fails the calls once the read timeout and the
+ * deadline pass. The run fails on the first unexpected outcome.
+ * <pre>
+ * java -cp target/benchmarks.jar org.whitesource.ant.ServiceFaultsStress [requests]
+ * </pre>
+ */
+public class ServiceFaultsStress {
+
+    /* --- Main --- */
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        Task task = Fixtures.createTask(new File("."));
+        List<AgentProjectInfo> projectInfos = Fixtures.createInventory(5, 200);
+
+        try (StandInServer server = new StandInServer()) {
+            StreamingWhitesourceService service = createService(server, 5000);
+
+            // connection reuse
+            for (int i = 0; i < requests; i++) {
+                service.checkPolicyCompliance("stand-in", "stress", "1.0", projectInfos, false);
+                service.update("stand-in", "stress", "1.0", projectInfos);
+            }
+            check(server.getConnections() == 1, server.getRequests() + " requests used " + server.getConnections() + " connections");
+            report("connection reuse", server, 0);
+
+            // server errors and dropped connections
+            server.reset();
+            server.setFaults(0.3, 0.1);
+            RetryPolicy retryPolicy = new RetryPolicy(task, 10, 10, 200, 0);
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                retryPolicy.call("update", update(service, projectInfos));
+            }
+            check(server.getRequests() - server.getFaults() == requests, "not all updates succeeded");
+            report("30% server errors, 10% dropped connections", server, start);
+
+            // no retries left
+            server.reset();
+            server.setFaults(1, 0);
+            try {
+                new RetryPolicy(task, 2, 10, 200, 0).call("update", update(service, projectInfos));
+                check(false, "update succeeded despite server errors");
+            } catch (WssServiceException e) {
+                check(server.getRequests() == 3, "expected 3 attempts, got " + server.getRequests());
+            }
+            report("retries exhausted", server, 0);
+
+            // read timeout then deadline
+            server.reset();
+            server.setFaults(0, 0);
+            server.setLatency(1500);
+            service = createService(server, 500);
+            start = System.nanoTime();
+            try {
+                new RetryPolicy(task, 100, 100, 200, 3000).call("update", update(service, projectInfos));
+                check(false, "update succeeded despite timeouts");
+            } catch (WssServiceException e) {
+                long millis = (System.nanoTime() - start) / 1000000;
+                check(millis < 3500, "deadline exceeded by " + (millis - 3000) + " ms");
+                System.out.println("slow service failed after " + millis + " ms: " + e.getMessage());
+            }
+            report("read timeout and deadline", server, start);
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private static StreamingWhitesourceService createService(StandInServer server, int readTimeoutMillis) throws Exception {
+        StreamingWhitesourceService service = new StreamingWhitesourceService(
+                Constants.AGENT_TYPE, Constants.AGENT_VERSION, Constants.PLUGIN_VERSION, server.getUrl());
+        service.setConnectTimeout(1000);
+        service.setReadTimeout(readTimeoutMillis);
+        return service;
+    }
+
+    private static RetryPolicy.ServiceCall<Object> update(final StreamingWhitesourceService service,
+                                                          final List<AgentProjectInfo> projectInfos) {
+        return new RetryPolicy.ServiceCall<Object>() {
+            @Override
+            public Object call() throws WssServiceException {
+                return service.update("stand-in", "stress", "1.0", projectInfos);
+            }
+        };
+    }
+
+    private static void report(String scenario, StandInServer server, long start) {
+        System.out.println(scenario + ": " + server.getRequests() + " requests, " + server.getFaults() + " faults, "
+                + server.getConnections() + " connections"
+                + (start == 0 ? "" : ", " + (System.nanoTime() - start) / 1000000 + " ms"));
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,476 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local stand-in for the White Source service, answering update and policy check requests with an empty
+ * successful result.
+ * <p>
+ * Request bodies are parsed as a stream, so that the stand-in itself does not weigh on heap measurements.
+ * The <code>diff</code> parameter is accepted either as plain JSON or gzip compressed and base64 encoded,
+ * and its modules and dependencies are counted.
+ * <p>
+ * Faults can be injected: a latency before each response, and a share of requests answered with a
+ * 503 status or whose connection is dropped without a response. Requests whose body exceeds a payload limit
+ * are answered with a 413 status, and a share of policy checks can be answered with a rejected library.
+ * <p>
+ * Request bodies can be captured as received, to compare the requests of several transports.
+ * <p>
+ * The plugin has no test sources, the stand-in is kept with the harnesses using it in this module, which is built
+ * on its own and never packaged with the plugin.
+ */
+class StandInServer implements Closeable {
+
+    /* --- Static members --- */
+
+    private static final String UPDATE_RESULT = "{\"envelopeVersion\":\"2.8.4\",\"status\":1,\"message\":\"ok\",\"data\":"
+            + "\"{\\\"organization\\\":\\\"stand-in\\\",\\\"updatedProjects\\\":[],\\\"createdProjects\\\":[]}\"}";
+
+    private static final String POLICY_CHECK_RESULT = "{\"envelopeVersion\":\"2.8.4\",\"status\":1,\"message\":\"ok\",\"data\":"
+            + "\"{\\\"organization\\\":\\\"stand-in\\\",\\\"existingProjects\\\":{},\\\"newProjects\\\":{}}\"}";
+
+    private static final String REJECTED_POLICY_CHECK_RESULT = "{\"envelopeVersion\":\"2.8.4\",\"status\":1,\"message\":\"ok\",\"data\":"
+            + "\"{\\\"organization\\\":\\\"stand-in\\\",\\\"existingProjects\\\":{},\\\"newProjects\\\":{\\\"stand-in\\\":"
+            + "{\\\"resource\\\":{\\\"displayName\\\":\\\"stand-in\\\",\\\"type\\\":\\\"PROJECT\\\"},\\\"children\\\":["
+            + "{\\\"resource\\\":{\\\"displayName\\\":\\\"rejected.jar\\\",\\\"type\\\":\\\"LIBRARY\\\"},"
+            + "\\\"policy\\\":{\\\"displayName\\\":\\\"stand-in rejection\\\",\\\"actionType\\\":\\\"Reject\\\"},"
+            + "\\\"children\\\":[]}]}}}\"}";
+
+    private static final String POLICY_CHECK_REQUEST = "CHECK_POLICY_COMPLIANCE";
+
+    /* --- Members --- */
+
+    private final HttpServer server;
+
+    private final ExecutorService executorService;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong policyChecks = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong modules = new AtomicLong();
+
+    private final AtomicLong dependencies = new AtomicLong();
+
+    private final AtomicLong faults = new AtomicLong();
+
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Client addresses seen, one per connection.
+     */
+    private final Set<InetSocketAddress> connections = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+
+    private final Random random = new Random(42);
+
+    private final List<byte[]> capturedRequests = Collections.synchronizedList(new ArrayList<byte[]>());
+
+    private volatile boolean captureRequests;
+
+    private volatile long latencyMillis;
+
+    private volatile double serverErrorRate;
+
+    private volatile double dropRate;
+
+    private volatile long maxPayloadBytes;
+
+    private volatile double rejectionRate;
+
+    /* --- Constructors --- */
+
+    StandInServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executorService = Executors.newCachedThreadPool();
+        server.setExecutor(executorService);
+        server.createContext("/agent", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                connections.add(exchange.getRemoteAddress());
+                Response response;
+                try {
+                    InputStream body = exchange.getRequestBody();
+                    if (captureRequests) {
+                        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+                        copy(body, captured);
+                        capturedRequests.add(captured.toByteArray());
+                        body = new ByteArrayInputStream(captured.toByteArray());
+                    }
+                    response = receive(body);
+                } catch (IOException e) {
+                    respond(exchange, 400, "{\"status\":2,\"message\":\"" + e.getMessage() + "\"}");
+                    return;
+                }
+                if (maxPayloadBytes > 0 && response.payloadBytes > maxPayloadBytes) {
+                    faults.incrementAndGet();
+                    respond(exchange, 413, "Request Entity Too Large");
+                    return;
+                }
+                injectFaults(exchange, response.content);
+            }
+        });
+        server.start();
+    }
+
+    /* --- Public methods --- */
+
+    String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/agent";
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return policy check requests received, the other requests being updates.
+     */
+    long getPolicyChecks() {
+        return policyChecks.get();
+    }
+
+    /**
+     * @return request body bytes received, as sent on the wire.
+     */
+    long getBytes() {
+        return bytes.get();
+    }
+
+    long getModules() {
+        return modules.get();
+    }
+
+    long getDependencies() {
+        return dependencies.get();
+    }
+
+    /**
+     * @return requests answered with a server error or dropped.
+     */
+    long getFaults() {
+        return faults.get();
+    }
+
+    /**
+     * @return policy checks answered with a rejection.
+     */
+    long getRejections() {
+        return rejections.get();
+    }
+
+    /**
+     * @return number of distinct client connections requests were received on.
+     */
+    int getConnections() {
+        return connections.size();
+    }
+
+    void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param serverErrorRate share of requests, from 0 to 1, answered with a 503 status.
+     * @param dropRate        share of requests, from 0 to 1, whose connection is closed without a response.
+     */
+    void setFaults(double serverErrorRate, double dropRate) {
+        this.serverErrorRate = serverErrorRate;
+        this.dropRate = dropRate;
+    }
+
+    /**
+     * @param maxPayloadBytes largest request body accepted, larger ones are answered with a 413 status. 0 for no limit.
+     */
+    void setMaxPayload(long maxPayloadBytes) {
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    /**
+     * @param rejectionRate share of policy checks, from 0 to 1, answered with a library rejected by a policy.
+     */
+    void setRejectionRate(double rejectionRate) {
+        this.rejectionRate = rejectionRate;
+    }
+
+    /**
+     * @param captureRequests whether to keep the body of each request received, for small requests only.
+     */
+    void setCaptureRequests(boolean captureRequests) {
+        this.captureRequests = captureRequests;
+    }
+
+    /**
+     * @return bodies of the requests received while capturing, in the order received.
+     */
+    List<byte[]> getCapturedRequests() {
+        synchronized (capturedRequests) {
+            return new ArrayList<byte[]>(capturedRequests);
+        }
+    }
+
+    void reset() {
+        requests.set(0);
+        policyChecks.set(0);
+        bytes.set(0);
+        modules.set(0);
+        dependencies.set(0);
+        faults.set(0);
+        rejections.set(0);
+        connections.clear();
+        capturedRequests.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executorService.shutdownNow();
+    }
+
+    /* --- Private methods --- */
+
+    private Response receive(InputStream body) throws IOException {
+        CountingInputStream is = new CountingInputStream(new BufferedInputStream(body));
+        boolean policyCheck = false;
+        try {
+            StringBuilder name = new StringBuilder();
+            int b;
+            while ((b = is.read()) != -1) {
+                if (b != '=') {
+                    name.append((char) b);
+                    continue;
+                }
+                FormValueInputStream value = new FormValueInputStream(is);
+                if ("diff".equals(name.toString())) {
+                    countInventory(value);
+                } else if ("type".equals(name.toString())) {
+                    policyCheck = POLICY_CHECK_REQUEST.equals(readValue(value));
+                }
+                drain(value);
+                name.setLength(0);
+            }
+        } finally {
+            requests.incrementAndGet();
+            if (policyCheck) {
+                policyChecks.incrementAndGet();
+            }
+            bytes.addAndGet(is.count);
+        }
+        if (!policyCheck) {
+            return new Response(UPDATE_RESULT, is.count);
+        }
+        if (draw() < rejectionRate) {
+            rejections.incrementAndGet();
+            return new Response(REJECTED_POLICY_CHECK_RESULT, is.count);
+        }
+        return new Response(POLICY_CHECK_RESULT, is.count);
+    }
+
+    private static String readValue(InputStream value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int b;
+        while ((b = value.read()) != -1) {
+            bytes.write(b);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void injectFaults(HttpExchange exchange, String response) throws IOException {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        double draw = draw();
+        if (draw < dropRate) {
+            faults.incrementAndGet();
+            exchange.close();
+        } else if (draw < dropRate + serverErrorRate) {
+            faults.incrementAndGet();
+            respond(exchange, 503, "Service Unavailable");
+        } else {
+            respond(exchange, 200, response);
+        }
+    }
+
+    private double draw() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private void countInventory(InputStream value) throws IOException {
+        PushbackInputStream diff = new PushbackInputStream(value);
+        int first = diff.read();
+        diff.unread(first);
+        InputStream json = first == '[' ? diff : new GZIPInputStream(Base64.getMimeDecoder().wrap(diff));
+
+        JsonReader reader = new JsonReader(new InputStreamReader(json, StandardCharsets.UTF_8));
+        reader.beginArray();
+        while (reader.hasNext()) {
+            modules.incrementAndGet();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("dependencies".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        dependencies.incrementAndGet();
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+
+    private static void copy(InputStream is, OutputStream os) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            os.write(buffer, 0, read);
+        }
+    }
+
+    private static void drain(InputStream is) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (is.read(buffer) != -1) {
+            // discard
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String response) throws IOException {
+        byte[] content = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(content);
+        }
+    }
+
+    /* --- Nested classes --- */
+
+    private static class Response {
+
+        private final String content;
+
+        private final long payloadBytes;
+
+        private Response(String content, long payloadBytes) {
+            this.content = content;
+            this.payloadBytes = payloadBytes;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Decodes a single form encoded value, up to the next parameter.
+     */
+    private static class FormValueInputStream extends InputStream {
+
+        private final InputStream in;
+
+        private boolean ended;
+
+        private FormValueInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int b = in.read();
+            switch (b) {
+                case -1:
+                case '&':
+                    ended = true;
+                    return -1;
+                case '+':
+                    return ' ';
+                case '%':
+                    return Integer.parseInt("" + (char) in.read() + (char) in.read(), 16);
+                default:
+                    return b;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int i = 0;
+            int c;
+            while (i < len && (c = read()) != -1) {
+                b[off + i++] = (byte) c;
+            }
+            return i == 0 && len > 0 ? -1 : i;
+        }
+    }
+}
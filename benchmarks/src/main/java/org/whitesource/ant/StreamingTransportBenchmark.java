@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.whitesource.agent.api.model.AgentProjectInfo;
+
+import java.util.List;
+
+/**
+ * Measures the bytes on the wire and the peak heap of an update request, for both transports, against a local
+ * {@link StandInServer}.
+ * <p>
+ * Run each transport in its own JVM with a fixed heap for comparable peaks, e.g.
+ * <pre>
+ * java -Xmx1g -cp target/benchmarks.jar org.whitesource.ant.StreamingTransportBenchmark streaming 200 1000
+ * java -Xmx1g -cp target/benchmarks.jar org.whitesource.ant.StreamingTransportBenchmark default 200 1000
+ * </pre>
+ * The peak heap includes the inventory itself, which is reported separately as the baseline.
+ */
+public class StreamingTransportBenchmark {
+
+    /* --- Main --- */
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : Constants.TRANSPORT_STREAMING;
+        int modules = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int dependencies = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        try (StandInServer server = new StandInServer()) {
+            InventoryService service = Constants.TRANSPORT_STREAMING.equals(transport)
+                    ? new StreamingWhitesourceService(Constants.AGENT_TYPE, Constants.AGENT_VERSION, Constants.PLUGIN_VERSION, server.getUrl())
+                    : new AgentInventoryService(Constants.AGENT_TYPE, Constants.AGENT_VERSION, Constants.PLUGIN_VERSION, server.getUrl(), 0, 0);
+            try {
+                List<AgentProjectInfo> projectInfos = Fixtures.createInventory(modules, dependencies);
+                long baseline = Fixtures.collectAndResetHeapPeaks();
+
+                long start = System.nanoTime();
+                service.update("stand-in", "benchmark", "1.0", projectInfos);
+                long millis = (System.nanoTime() - start) / 1000000;
+                long peak = Fixtures.getPeakHeap();
+
+                if (server.getDependencies() != (long) modules * dependencies) {
+                    throw new IllegalStateException("Stand-in received " + server.getDependencies() + " dependencies, expected "
+                            + (long) modules * dependencies);
+                }
+                System.out.println(transport + " transport, " + modules + " modules of " + dependencies + " dependencies: "
+                        + server.getRequests() + " request(s), " + server.getBytes() + " bytes on the wire in " + millis
+                        + " ms, peak heap " + toMb(peak) + " MB over a " + toMb(baseline) + " MB baseline");
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private static long toMb(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.tools.ant.Project;
+
+import java.io.File;
+
+/**
+ * Measures the end to end time of the whitesource task against a {@link StandInServer} responding with a fixed
+ * latency, when updating only and when the policy check overlaps the update, with and without forcing the update.
+ * Each configuration is checked to send every request exactly once.
+ * <pre>
+ * java -cp target/benchmarks.jar org.whitesource.ant.SubmissionPipelineBenchmark [latency ms] [runs]
+ * </pre>
+ */
+public class SubmissionPipelineBenchmark {
+
+    /* --- Main --- */
+
+    public static void main(String[] args) throws Exception {
+        long latency = args.length > 0 ? Long.parseLong(args[0]) : 500;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        File dir = Fixtures.createTempDir("submission-pipeline");
+        try (StandInServer server = new StandInServer()) {
+            for (int i = 0; i < 50; i++) {
+                Fixtures.createJar(dir, "lib/artifact-" + i + ".jar", 8, 4 * 1024, true);
+            }
+            server.setLatency(latency);
+
+            for (int run = 0; run < runs; run++) {
+                measure("update only", dir, server, false, false, 1, 0);
+                measure("update, overlapped with policy check", dir, server, true, false, 2, 1);
+                measure("forced update, overlapped with policy check", dir, server, true, true, 2, 1);
+            }
+        } finally {
+            Fixtures.delete(dir);
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private static void measure(String scenario, File dir, StandInServer server, boolean checkPolicies, boolean forceUpdate,
+                                int expectedRequests, int expectedPolicyChecks) {
+        Project project = Fixtures.createTask(dir).getProject();
+        WhitesourceTask task = new WhitesourceTask();
+        task.setProject(project);
+        task.init();
+        task.setApikey("stand-in");
+        task.setWssurl(server.getUrl());
+        task.setTransport(Constants.TRANSPORT_STREAMING);
+        task.setForceUpdate(forceUpdate);
+        task.addModule(Fixtures.createModule(project, new File(dir, "lib")));
+        if (checkPolicies) {
+            CheckPolicies policies = new CheckPolicies();
+            policies.setReportdir(new File(dir, "reports"));
+            task.addCheckpolicies(policies);
+        }
+
+        server.reset();
+        long start = System.nanoTime();
+        task.execute();
+        long millis = (System.nanoTime() - start) / 1000000;
+        if (server.getRequests() != expectedRequests || server.getPolicyChecks() != expectedPolicyChecks) {
+            throw new IllegalStateException(scenario + ": expected " + expectedRequests + " requests including "
+                    + expectedPolicyChecks + " policy checks, got " + server.getRequests() + " including " + server.getPolicyChecks());
+        }
+        System.out.println(scenario + ": " + server.getRequests() + " requests in " + millis + " ms");
+    }
+}
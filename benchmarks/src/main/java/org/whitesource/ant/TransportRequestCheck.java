@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.whitesource.agent.api.dispatch.CheckPolicyComplianceResult;
+import org.whitesource.agent.api.dispatch.UpdateInventoryResult;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+import org.whitesource.agent.client.WhitesourceService;
+import org.whitesource.agent.client.WssServiceException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Checks that both transports send the same requests as the agent client, {@link WhitesourceService}.
+ * <p>
+ * The same update and policy check requests are sent through the agent client and each transport to a
+ * {@link StandInServer}, which captures their bodies. Form parameters are compared by name and value, except for the request time stamp. The
+ * <code>diff</code> parameters are compared once decoded and decompressed, as compression may differ in framing
+ * only. Differences are printed, and the check exits with status 1 if there are any.
+ * <pre>
+ * java -cp target/benchmarks.jar org.whitesource.ant.TransportRequestCheck
+ * </pre>
+ */
+public class TransportRequestCheck {
+
+    /* --- Static members --- */
+
+    private static final Set<String> IGNORED_PARAMETERS = Collections.singleton("timeStamp");
+
+    private static final String DIFF_PARAMETER = "diff";
+
+    private static final String[] REQUESTS = {"update", "policy check"};
+
+    /* --- Main --- */
+
+    public static void main(String[] args) throws Exception {
+        List<AgentProjectInfo> projectInfos = Fixtures.createInventory(3, 20);
+        List<String> differences = new ArrayList<String>();
+        try (StandInServer server = new StandInServer()) {
+            server.setCaptureRequests(true);
+            final WhitesourceService agentClient = new WhitesourceService(
+                    Constants.AGENT_TYPE, Constants.AGENT_VERSION, Constants.PLUGIN_VERSION, server.getUrl());
+            List<byte[]> expected = send(new InventoryService() {
+                @Override
+                public UpdateInventoryResult update(String orgToken, String product, String productVersion,
+                                                    Collection<AgentProjectInfo> projectInfos) throws WssServiceException {
+                    return agentClient.update(orgToken, product, productVersion, projectInfos);
+                }
+
+                @Override
+                public CheckPolicyComplianceResult checkPolicyCompliance(String orgToken, String product, String productVersion,
+                                                                         Collection<AgentProjectInfo> projectInfos,
+                                                                         boolean forceCheckAllDependencies) throws WssServiceException {
+                    return agentClient.checkPolicyCompliance(orgToken, product, productVersion, projectInfos, forceCheckAllDependencies);
+                }
+
+                @Override
+                public void abort(Thread thread) {
+                    // requests are never abandoned here
+                }
+
+                @Override
+                public void shutdown() {
+                    agentClient.shutdown();
+                }
+            }, server, projectInfos);
+
+            Map<String, InventoryService> transports = new LinkedHashMap<String, InventoryService>();
+            transports.put(Constants.TRANSPORT_DEFAULT, new AgentInventoryService(
+                    Constants.AGENT_TYPE, Constants.AGENT_VERSION, Constants.PLUGIN_VERSION, server.getUrl(), 0, 0));
+            transports.put(Constants.TRANSPORT_STREAMING, new StreamingWhitesourceService(
+                    Constants.AGENT_TYPE, Constants.AGENT_VERSION, Constants.PLUGIN_VERSION, server.getUrl()));
+            for (Map.Entry<String, InventoryService> transport : transports.entrySet()) {
+                List<byte[]> actual = send(transport.getValue(), server, projectInfos);
+                for (int i = 0; i < REQUESTS.length; i++) {
+                    compare(transport.getKey() + " transport " + REQUESTS[i], parseForm(expected.get(i)), parseForm(actual.get(i)), differences);
+                }
+            }
+        }
+
+        if (differences.isEmpty()) {
+            System.out.println("Requests of both transports match the agent client requests");
+        } else {
+            for (String difference : differences) {
+                System.out.println(difference);
+            }
+            System.exit(1);
+        }
+    }
+
+    /* --- Private methods --- */
+
+    /**
+     * @return the bodies of an update request and a policy check request sent through the given service.
+     */
+    private static List<byte[]> send(InventoryService service, StandInServer server, List<AgentProjectInfo> projectInfos)
+            throws Exception {
+        server.reset();
+        try {
+            service.update("stand-in", "check", "1.0", projectInfos);
+            service.checkPolicyCompliance("stand-in", "check", "1.0", projectInfos, true);
+        } finally {
+            service.shutdown();
+        }
+        List<byte[]> requests = server.getCapturedRequests();
+        if (requests.size() != REQUESTS.length) {
+            throw new IllegalStateException("Stand-in captured " + requests.size() + " requests, expected " + REQUESTS.length);
+        }
+        return requests;
+    }
+
+    private static void compare(String request, Map<String, String> expected, Map<String, String> actual,
+                                List<String> differences) throws IOException {
+        Set<String> names = new TreeSet<String>(expected.keySet());
+        names.addAll(actual.keySet());
+        names.removeAll(IGNORED_PARAMETERS);
+        for (String name : names) {
+            String expectedValue = expected.get(name);
+            String actualValue = actual.get(name);
+            if (DIFF_PARAMETER.equals(name) && expectedValue != null && actualValue != null) {
+                expectedValue = decodeDiff(expectedValue);
+                actualValue = decodeDiff(actualValue);
+            }
+            if (expectedValue == null || actualValue == null) {
+                differences.add(request + ": parameter " + name + " only sent by the "
+                        + (actualValue == null ? "agent client" : "transport"));
+            } else if (!expectedValue.equals(actualValue)) {
+                differences.add(request + ": parameter " + name + " differs " + describe(expectedValue, actualValue));
+            }
+        }
+    }
+
+    private static Map<String, String> parseForm(byte[] body) throws IOException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        for (String parameter : new String(body, StandardCharsets.US_ASCII).split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * @return the JSON inventory of a <code>diff</code> parameter, plain or gzip compressed and base64 encoded.
+     */
+    private static String decodeDiff(String diff) throws IOException {
+        if (diff.startsWith("[")) {
+            return diff;
+        }
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(Base64.getMimeDecoder().decode(diff)))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                json.write(buffer, 0, read);
+            }
+        }
+        return new String(json.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the position of the first difference with some context of both values.
+     */
+    private static String describe(String expected, String actual) {
+        int offset = 0;
+        while (offset < expected.length() && offset < actual.length() && expected.charAt(offset) == actual.charAt(offset)) {
+            offset++;
+        }
+        int from = Math.max(0, offset - 20);
+        return "at offset " + offset + ", agent client: \"" + excerpt(expected, from) + "\", transport: \"" + excerpt(actual, from) + "\"";
+    }
+
+    private static String excerpt(String value, int from) {
+        return value.substring(Math.min(from, value.length()), Math.min(from + 60, value.length()));
+    }
+}
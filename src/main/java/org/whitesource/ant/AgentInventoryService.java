@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.whitesource.agent.api.dispatch.CheckPolicyComplianceResult;
+import org.whitesource.agent.api.dispatch.RequestFactory;
+import org.whitesource.agent.api.dispatch.ServiceRequest;
+import org.whitesource.agent.api.dispatch.UpdateInventoryResult;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+import org.whitesource.agent.client.WssServiceClientImpl;
+import org.whitesource.agent.client.WssServiceException;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * White Source service sending requests through the agent client, the default transport.
+ * <p>
+ * Requests are created by the agent request factory and sent by a single agent HTTP client, whose pooled
+ * connections are shared by concurrent requests. The connect and socket timeouts are set on each request,
+ * to the millisecond, instead of the single timeout in whole minutes the agent client takes. Proxy settings
+ * are looked up as by the agent client default constructor. The size of each request body is added to the
+ * task metrics, as known from the form entity created by the agent client.
+ */
+public class AgentInventoryService implements InventoryService {
+
+    /* --- Members --- */
+
+    private final RequestFactory requestFactory;
+
+    private final Client client;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param serviceUrl           service url, see {@link ServiceSettings#resolveServiceUrl(String)}.
+     * @param connectTimeoutMillis connection timeout, zero to keep the agent client default.
+     * @param readTimeoutMillis    socket timeout, zero to keep the agent client default.
+     */
+    public AgentInventoryService(String agent, String agentVersion, String pluginVersion, String serviceUrl,
+                                 int connectTimeoutMillis, int readTimeoutMillis) {
+        this.requestFactory = new RequestFactory(agent, agentVersion, pluginVersion);
+        this.client = new Client(serviceUrl, connectTimeoutMillis, readTimeoutMillis);
+    }
+
+    /* --- Overridden InventoryService methods --- */
+
+    @Override
+    public UpdateInventoryResult update(String orgToken, String product, String productVersion,
+                                        Collection<AgentProjectInfo> projectInfos) throws WssServiceException {
+        try {
+            return client.updateInventory(requestFactory.newUpdateInventoryRequest(orgToken, product, productVersion, projectInfos));
+        } finally {
+            client.requests.remove(Thread.currentThread());
+        }
+    }
+
+    @Override
+    public CheckPolicyComplianceResult checkPolicyCompliance(String orgToken, String product, String productVersion,
+                                                             Collection<AgentProjectInfo> projectInfos,
+                                                             boolean forceCheckAllDependencies) throws WssServiceException {
+        try {
+            return client.checkPolicyCompliance(requestFactory.newCheckPolicyComplianceRequest(
+                    orgToken, product, productVersion, projectInfos, forceCheckAllDependencies));
+        } finally {
+            client.requests.remove(Thread.currentThread());
+        }
+    }
+
+    @Override
+    public void abort(Thread thread) {
+        HttpRequestBase request = client.requests.remove(thread);
+        if (request != null) {
+            request.abort();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        client.shutdown();
+    }
+
+    /* --- Getters / Setters --- */
+
+    /**
+     * @param metrics metrics to count request body sizes in.
+     */
+    public void setMetrics(TaskMetrics metrics) {
+        client.metrics = metrics;
+    }
+
+    /* --- Nested classes --- */
+
+    /**
+     * Agent client applying the connect and socket timeouts to each request it sends, and counting its body.
+     * The request each thread is sending is kept, so that it can be aborted.
+     */
+    private static class Client extends WssServiceClientImpl {
+
+        private final int connectTimeoutMillis;
+
+        private final int readTimeoutMillis;
+
+        private volatile TaskMetrics metrics;
+
+        private final ConcurrentMap<Thread, HttpRequestBase> requests = new ConcurrentHashMap<Thread, HttpRequestBase>();
+
+        private Client(String serviceUrl, int connectTimeoutMillis, int readTimeoutMillis) {
+            super(serviceUrl, true);
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.readTimeoutMillis = readTimeoutMillis;
+            this.metrics = new TaskMetrics();
+        }
+
+        @Override
+        protected HttpRequestBase createHttpRequest(ServiceRequest request) throws IOException {
+            HttpRequestBase httpRequest = super.createHttpRequest(request);
+            setTimeouts(httpRequest);
+            if (httpRequest instanceof HttpEntityEnclosingRequest) {
+                HttpEntity entity = ((HttpEntityEnclosingRequest) httpRequest).getEntity();
+                if (entity != null && entity.getContentLength() > 0) {
+                    metrics.addPayloadBytes(entity.getContentLength());
+                }
+            }
+            requests.put(Thread.currentThread(), httpRequest);
+            if (Thread.currentThread().isInterrupted()) {
+                // abandoned before the request was known
+                httpRequest.abort();
+            }
+            return httpRequest;
+        }
+
+        /**
+         * The agent client executes requests with the HttpParams based client of HttpClient 4.2, which reads
+         * the timeouts of each request from its parameters and ignores a request config. The deprecated
+         * parameters API is thus the one that takes effect, and is referred to by qualified names only here.
+         */
+        @SuppressWarnings("deprecation")
+        private void setTimeouts(HttpRequestBase httpRequest) {
+            org.apache.http.params.HttpParams params = httpRequest.getParams();
+            if (connectTimeoutMillis > 0) {
+                org.apache.http.params.HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+            }
+            if (readTimeoutMillis > 0) {
+                org.apache.http.params.HttpConnectionParams.setSoTimeout(params, readTimeoutMillis);
+            }
+        }
+    }
+}
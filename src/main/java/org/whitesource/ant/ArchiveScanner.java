@@ -0,0 +1,685 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.whitesource.agent.api.model.ChecksumType;
+import org.whitesource.agent.api.model.DependencyInfo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Lists and fingerprints the archives and binaries embedded in an archive, such as the jars bundled in a war.
+ * <p>
+ * Zip family archives on disk are memory mapped and their central directory is read in place. Embedded entries
+ * stored without compression are hashed in place as well and, when themselves zip archives, descended into
+ * through their own central directory, without any copy. Deflated entries, tar and gzip compressed tar archives
+ * are inflated as a stream, each entry being hashed while its own embedded entries are listed. The path and size
+ * of tar entries are taken from GNU long name and pax extended headers when present.
+ * <p>
+ * Nesting depth and the total number of bytes inflated or read from stored content per scanned archive are
+ * bounded, whether these bytes belong to a fingerprinted entry or to one skipped on the way, so that a zip bomb
+ * fails the scan instead of exhausting time or memory.
+ */
+public class ArchiveScanner {
+
+    /* --- Static members --- */
+
+    public static final String NESTED_PATH_SEPARATOR = "!/";
+
+    private static final List<String> ZIP_EXTENSIONS = Arrays.asList("jar", "war", "ear", "par", "rar", "zip");
+
+    private static final List<String> TAR_EXTENSIONS = Collections.singletonList("tar");
+
+    private static final List<String> TAR_GZ_EXTENSIONS = Collections.singletonList("tar.gz");
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int UTF8_FLAG = 1 << 11;
+
+    private static final int TAR_BLOCK_SIZE = 512;
+    /**
+     * Maximum size of a GNU long name or pax extended header read, larger ones are skipped.
+     */
+    private static final int MAX_TAR_EXTENSION_SIZE = 64 * 1024;
+
+    private static final String PAX_PATH = "path";
+
+    private static final String PAX_SIZE = "size";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset ZIP_DEFAULT_CHARSET = StandardCharsets.ISO_8859_1;
+
+    /* --- Members --- */
+
+    private final ExtensionMatcher zipMatcher;
+
+    private final ExtensionMatcher tarMatcher;
+
+    private final ExtensionMatcher tarGzMatcher;
+
+    /**
+     * Matches the embedded entries to fingerprint.
+     */
+    private final ExtensionMatcher entryMatcher;
+
+    private final int maxDepth;
+
+    private final long maxBytes;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param extensions extensions of the embedded entries to fingerprint.
+     * @param maxDepth   number of archive levels to open, 1 only lists the entries of the scanned archive itself.
+     * @param maxBytes   maximum number of bytes inflated or read while scanning a single archive.
+     */
+    public ArchiveScanner(Collection<String> extensions, int maxDepth, long maxBytes) {
+        this.zipMatcher = new ExtensionMatcher(ZIP_EXTENSIONS);
+        this.tarMatcher = new ExtensionMatcher(TAR_EXTENSIONS);
+        this.tarGzMatcher = new ExtensionMatcher(TAR_GZ_EXTENSIONS);
+        this.entryMatcher = new ExtensionMatcher(extensions);
+        this.maxDepth = maxDepth;
+        this.maxBytes = maxBytes;
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * @return true if the given file is an archive which can be scanned.
+     */
+    public boolean accepts(File file) {
+        return isArchive(file.getName());
+    }
+
+    /**
+     * Fingerprints the entries embedded in the given archive.
+     *
+     * @return the dependencies embedded in the archive, each holding its own embedded dependencies as children.
+     * @throws IOException in case the archive can not be read, is corrupted or exceeds the scan bounds.
+     */
+    public List<DependencyInfo> scan(File archive) throws IOException {
+        Budget budget = new Budget();
+        String name = archive.getName();
+        if (!isZip(name)) {
+            try (InputStream is = new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE)) {
+                // the entries of a plain tar are read as is, those of a compressed one are charged once inflated
+                InputStream content = tarMatcher.matches(name) ? budget.bound(is) : is;
+                return scanStream(content, name, archive.getPath(), 1, budget);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                // too large for a single mapping, list the entries through their local headers instead
+                try (InputStream is = new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE)) {
+                    return scanStream(is, name, archive.getPath(), 1, budget);
+                }
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return scanZip(buffer, archive.getPath(), 1, budget);
+            } finally {
+                // nothing read from the archive is kept once scanned
+                IoUtils.unmap(buffer);
+            }
+        }
+    }
+
+    /* --- Private methods --- */
+
+    /**
+     * Lists the entries of a zip archive held in the given buffer, using its central directory.
+     */
+    private List<DependencyInfo> scanZip(ByteBuffer zip, String path, int depth, Budget budget) throws IOException {
+        ByteBuffer buffer = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int end = findEndOfCentralDirectory(buffer);
+        if (end < 0) {
+            throw new ZipException("Not a zip archive: " + path);
+        }
+        int entries = buffer.getShort(end + 10) & 0xffff;
+        long centralDirectoryOffset = buffer.getInt(end + 16) & 0xffffffffL;
+        if (entries == 0xffff || centralDirectoryOffset == 0xffffffffL) {
+            throw new ZipException("Zip64 archives are not supported: " + path);
+        }
+
+        List<DependencyInfo> dependencies = new ArrayList<DependencyInfo>();
+        int position = checkRange(buffer, centralDirectoryOffset, 0, path);
+        for (int i = 0; i < entries; i++) {
+            checkRange(buffer, position, CENTRAL_DIRECTORY_HEADER_SIZE, path);
+            if (buffer.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry in " + path);
+            }
+            int flags = buffer.getShort(position + 8) & 0xffff;
+            int method = buffer.getShort(position + 10) & 0xffff;
+            long compressedSize = buffer.getInt(position + 20) & 0xffffffffL;
+            long size = buffer.getInt(position + 24) & 0xffffffffL;
+            int nameLength = buffer.getShort(position + 28) & 0xffff;
+            int extraLength = buffer.getShort(position + 30) & 0xffff;
+            int commentLength = buffer.getShort(position + 32) & 0xffff;
+            long localHeaderOffset = buffer.getInt(position + 42) & 0xffffffffL;
+            checkRange(buffer, position + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength, path);
+            String entryName = decode(buffer, position + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength,
+                    (flags & UTF8_FLAG) != 0 ? StandardCharsets.UTF_8 : ZIP_DEFAULT_CHARSET);
+            position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+            if (!isIncluded(entryName)) {
+                continue;
+            }
+
+            int localHeader = checkRange(buffer, localHeaderOffset, LOCAL_HEADER_SIZE, path);
+            if (buffer.getInt(localHeader) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local header of " + entryName + " in " + path);
+            }
+            long dataOffset = localHeader + LOCAL_HEADER_SIZE
+                    + (buffer.getShort(localHeader + 26) & 0xffff) + (buffer.getShort(localHeader + 28) & 0xffff);
+            ByteBuffer data = slice(buffer, checkRange(buffer, dataOffset, compressedSize, path), (int) compressedSize);
+            String entryPath = path + NESTED_PATH_SEPARATOR + entryName;
+
+            if (method == ZipEntry.STORED) {
+                dependencies.add(fingerprintStored(data, entryName, entryPath, depth, budget));
+            } else if (method == ZipEntry.DEFLATED) {
+                Inflater inflater = new Inflater(true);
+                try {
+                    InputStream inflated = budget.bound(
+                            new InflaterInputStream(new ByteBufferInputStream(data), inflater, BUFFER_SIZE));
+                    dependencies.add(fingerprintStream(inflated, entryName, entryPath, depth, budget));
+                } finally {
+                    inflater.end();
+                }
+            }
+            // other compression methods are not supported by the jdk, such entries are left out
+        }
+        return dependencies;
+    }
+
+    /**
+     * Hashes an uncompressed entry in place, descending into it through its central directory if it is a zip archive.
+     */
+    private DependencyInfo fingerprintStored(ByteBuffer data, String entryName, String entryPath, int depth, Budget budget)
+            throws IOException {
+        budget.consume(data.remaining());
+        if (!isZip(entryName)) {
+            return fingerprintStream(new ByteBufferInputStream(data), entryName, entryPath, depth, budget);
+        }
+
+        MessageDigest sha1 = createDigest("SHA-1");
+        MessageDigest md5 = createDigest("MD5");
+        sha1.update(data.duplicate());
+        md5.update(data.duplicate());
+
+        List<DependencyInfo> children = Collections.emptyList();
+        if (depth < maxDepth) {
+            try {
+                children = scanZip(data, entryPath, depth + 1, budget);
+            } catch (ZipException e) {
+                // not an actual zip archive, keep the entry itself
+            }
+        }
+        return createDependencyInfo(entryName, entryPath, sha1, md5, children);
+    }
+
+    /**
+     * Hashes an entry read as a stream, listing its own embedded entries while it is read.
+     * The given stream is read to its end, but not closed. Its bytes are expected to be charged to the budget
+     * already, where they were inflated or read.
+     */
+    private DependencyInfo fingerprintStream(InputStream in, String entryName, String entryPath, int depth, Budget budget)
+            throws IOException {
+        MessageDigest sha1 = createDigest("SHA-1");
+        MessageDigest md5 = createDigest("MD5");
+        InputStream digesting = new DigestInputStream(new DigestInputStream(in, sha1), md5);
+
+        List<DependencyInfo> children = Collections.emptyList();
+        if (depth < maxDepth && isArchive(entryName)) {
+            try {
+                children = scanStream(digesting, entryName, entryPath, depth + 1, budget);
+            } catch (ZipException | EOFException e) {
+                // not an actual archive, keep the entry itself
+            }
+        }
+        drain(digesting);
+        return createDependencyInfo(entryName, entryPath, sha1, md5, children);
+    }
+
+    /**
+     * Lists the entries of an archive read as a stream, without closing it.
+     */
+    private List<DependencyInfo> scanStream(InputStream in, String name, String path, int depth, Budget budget)
+            throws IOException {
+        List<DependencyInfo> dependencies = new ArrayList<DependencyInfo>();
+        if (isZip(name)) {
+            ZipInputStream zis = budget.boundZip(in);
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (!entry.isDirectory() && isIncluded(entry.getName())) {
+                    String entryPath = path + NESTED_PATH_SEPARATOR + entry.getName();
+                    dependencies.add(fingerprintStream(zis, entry.getName(), entryPath, depth, budget));
+                }
+            }
+        } else if (tarGzMatcher.matches(name)) {
+            scanTar(budget.bound(new GZIPInputStream(in, BUFFER_SIZE)), path, depth, budget, dependencies);
+        } else if (tarMatcher.matches(name)) {
+            scanTar(in, path, depth, budget, dependencies);
+        }
+        return dependencies;
+    }
+
+    private void scanTar(InputStream in, String path, int depth, Budget budget, List<DependencyInfo> dependencies)
+            throws IOException {
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        String longName = null;
+        Map<String, String> globalPaxHeaders = new HashMap<String, String>();
+        Map<String, String> paxHeaders = new HashMap<String, String>();
+        while (readBlock(in, header)) {
+            if (isZeroBlock(header)) {
+                break;
+            }
+            byte type = header[156];
+            String entryName = null;
+            long size = tarNumber(header, 124, 12);
+            if (type != 'x' && type != 'g') {
+                // the headers read before apply to this entry
+                entryName = paxValue(PAX_PATH, paxHeaders, globalPaxHeaders);
+                if (entryName == null) {
+                    entryName = longName;
+                }
+                if (entryName == null) {
+                    entryName = tarString(header, 0, 100);
+                    String prefix = tarString(header, 345, 155);
+                    if (isPosixTar(header) && !prefix.isEmpty()) {
+                        entryName = prefix + "/" + entryName;
+                    }
+                }
+                String paxSize = paxValue(PAX_SIZE, paxHeaders, globalPaxHeaders);
+                if (paxSize != null) {
+                    size = parsePaxSize(paxSize);
+                }
+                longName = null;
+                paxHeaders.clear();
+            }
+
+            InputStream entry = new BoundedInputStream(in, size);
+            if (type == 'L' && size <= MAX_TAR_EXTENSION_SIZE) {
+                // GNU long name of the next entry
+                longName = new String(readAll(entry), StandardCharsets.UTF_8).replace("\0", "");
+            } else if (type == 'x' && size <= MAX_TAR_EXTENSION_SIZE) {
+                // pax extended header of the next entry
+                paxHeaders.putAll(parsePaxHeaders(readAll(entry)));
+            } else if (type == 'g' && size <= MAX_TAR_EXTENSION_SIZE) {
+                // pax global header of all following entries
+                globalPaxHeaders.putAll(parsePaxHeaders(readAll(entry)));
+            } else if ((type == '0' || type == 0) && isIncluded(entryName)) {
+                String entryPath = path + NESTED_PATH_SEPARATOR + entryName;
+                dependencies.add(fingerprintStream(entry, entryName, entryPath, depth, budget));
+            }
+            drain(entry);
+            skipFully(in, (TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE);
+        }
+    }
+
+    private boolean isIncluded(String entryName) {
+        return !entryName.endsWith("/") && entryMatcher.matches(baseName(entryName));
+    }
+
+    private boolean isArchive(String name) {
+        return isZip(name) || tarMatcher.matches(name) || tarGzMatcher.matches(name);
+    }
+
+    private boolean isZip(String name) {
+        return zipMatcher.matches(name);
+    }
+
+    private static DependencyInfo createDependencyInfo(String entryName, String entryPath, MessageDigest sha1,
+                                                       MessageDigest md5, List<DependencyInfo> children) {
+        String fileName = baseName(entryName);
+        DependencyInfo dependency = new DependencyInfo();
+        dependency.setFilename(fileName);
+        dependency.setArtifactId(fileName);
+        dependency.setSystemPath(entryPath);
+        dependency.setSha1(IoUtils.toHex(sha1.digest()));
+        dependency.addChecksum(ChecksumType.MD5, IoUtils.toHex(md5.digest()));
+        dependency.getChildren().addAll(children);
+        return dependency;
+    }
+
+    private static String baseName(String entryName) {
+        return entryName.substring(entryName.lastIndexOf('/') + 1);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        int lowest = Math.max(0, limit - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_SIZE);
+        for (int position = limit - END_OF_CENTRAL_DIRECTORY_SIZE; position >= lowest; position--) {
+            if (buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the given offset, after checking that the given length fits in the buffer from it.
+     */
+    private static int checkRange(ByteBuffer buffer, long offset, long length, String path) throws ZipException {
+        if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+            throw new ZipException("Truncated zip archive: " + path);
+        }
+        return (int) offset;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length, Charset charset) {
+        byte[] bytes = new byte[length];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    private static String tarString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8).trim();
+    }
+
+    private static long tarNumber(byte[] header, int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            // base-256 encoding of large sizes
+            long value = header[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
+        }
+        String octal = tarString(header, offset, length);
+        try {
+            return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid tar header size " + octal, e);
+        }
+    }
+
+    /**
+     * @return the value of a pax header keyword for the next entry, null if unset or deleted by an empty value.
+     */
+    private static String paxValue(String keyword, Map<String, String> headers, Map<String, String> globalHeaders) {
+        String value = headers.containsKey(keyword) ? headers.get(keyword) : globalHeaders.get(keyword);
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Parses the records of a pax extended header, each formatted as <code>"length keyword=value\n"</code>,
+     * where length is the number of bytes of the whole record.
+     */
+    private static Map<String, String> parsePaxHeaders(byte[] data) throws IOException {
+        Map<String, String> headers = new HashMap<String, String>();
+        int position = 0;
+        while (position < data.length && data[position] != 0) {
+            int space = position;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, position, space - position, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid pax header record length", e);
+            }
+            int end = position + length;
+            if (space >= end - 1 || end > data.length || data[end - 1] != '\n') {
+                throw new IOException("Invalid pax header record");
+            }
+            String record = new String(data, space + 1, end - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                headers.put(record.substring(0, equals), record.substring(equals + 1));
+            }
+            position = end;
+        }
+        return headers;
+    }
+
+    private static long parsePaxSize(String size) throws IOException {
+        try {
+            long value = Long.parseLong(size.trim());
+            if (value < 0) {
+                throw new IOException("Invalid pax header size " + size);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid pax header size " + size, e);
+        }
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int n = in.read(block, read, block.length - read);
+            if (n < 0) {
+                return false;
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    /**
+     * @return true for a POSIX ustar header, whose prefix field extends the entry name.
+     */
+    private static boolean isPosixTar(byte[] header) {
+        return "ustar".equals(new String(header, 257, 5, StandardCharsets.US_ASCII)) && header[262] == 0;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        byte[] buffer = new byte[TAR_BLOCK_SIZE];
+        while (count > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (n < 0) {
+                return;
+            }
+            count -= n;
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (in.read(buffer) >= 0) {
+            // read to the end
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static MessageDigest createDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /* --- Nested classes --- */
+
+    /**
+     * Bytes left to inflate or read while scanning a single archive.
+     */
+    private class Budget {
+
+        private long remaining = maxBytes;
+
+        private void consume(long bytes) throws IOException {
+            remaining -= bytes;
+            if (remaining < 0) {
+                throw new IOException("Archive content exceeds the deep scan limit of " + maxBytes + " bytes");
+            }
+        }
+
+        private InputStream bound(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        consume(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        consume(n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        /**
+         * @return a zip stream charging every inflated byte, including those of the entries
+         * it skips through {@link ZipInputStream#getNextEntry()}, which are read the same way.
+         */
+        private ZipInputStream boundZip(InputStream in) {
+            return new ZipInputStream(in) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        consume(n);
+                    }
+                    return n;
+                }
+            };
+        }
+    }
+
+    /**
+     * Reads a byte buffer, so that mapped content can be inflated without copying it to the heap first.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Reads at most a given number of bytes of the underlying stream, without closing it.
+     */
+    private static class BoundedInputStream extends InputStream {
+
+        private final InputStream in;
+
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long size) {
+            this.in = in;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
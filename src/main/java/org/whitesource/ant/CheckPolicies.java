@@ -42,11 +42,34 @@ public class CheckPolicies {
 	 */
 	private boolean forcecheckalldependencies;
 
+	/**
+	 * File caching policy check results, so that an unchanged inventory is not checked again.
+	 */
+	private File cachefile;
+
+	/**
+	 * Time, in minutes, after which a cached policy check result is no longer used.
+	 */
+	private long cachettl;
+
+	/**
+	 * Report format, either legacy or a comma separated list of html, json and csv written in a single pass.
+	 */
+	private String reportformat;
+
+	/**
+	 * Whether or not to write the report on a separate thread while the inventory is updated.
+	 */
+	private boolean backgroundreport;
+
 	/* --- Constructors --- */
 	
 	public CheckPolicies() {
 		failonrejection = true;
 		forcecheckalldependencies = false;
+		cachettl = Constants.DEFAULT_POLICY_CACHE_TTL_MINUTES;
+		reportformat = Constants.REPORT_FORMAT_LEGACY;
+		backgroundreport = false;
 	}
 
 	/* --- Getters / Setters --- */
@@ -74,4 +97,36 @@ public class CheckPolicies {
 	public void setForcecheckalldependencies(boolean forcecheckalldependencies) {
 		this.forcecheckalldependencies = forcecheckalldependencies;
 	}
+
+	public File getCachefile() {
+		return cachefile;
+	}
+
+	public void setCachefile(File cachefile) {
+		this.cachefile = cachefile;
+	}
+
+	public long getCachettl() {
+		return cachettl;
+	}
+
+	public void setCachettl(long cachettl) {
+		this.cachettl = cachettl;
+	}
+
+	public String getReportformat() {
+		return reportformat;
+	}
+
+	public void setReportformat(String reportformat) {
+		this.reportformat = reportformat;
+	}
+
+	public boolean isBackgroundreport() {
+		return backgroundreport;
+	}
+
+	public void setBackgroundreport(boolean backgroundreport) {
+		this.backgroundreport = backgroundreport;
+	}
 }
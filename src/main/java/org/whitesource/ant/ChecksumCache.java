@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.whitesource.agent.api.model.DependencyInfo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Persistent index of calculated dependency checksums.
+ * <p>
+ * Entries are keyed by canonical path and are only used while the file length, last modified time and
+ * file key (inode, where supported) are unchanged. The index is stored as a gzip compressed file, one JSON
+ * entry per line between a version header and an entry count trailer. A file which fails the gzip checksum,
+ * the header or the trailer is considered corrupted and ignored as a whole.
+ */
+public class ChecksumCache {
+
+    /* --- Static members --- */
+
+    private static final String HEADER = "whitesource-checksum-cache-v1";
+
+    private static final String TRAILER_PREFIX = "entries:";
+
+    /* --- Members --- */
+
+    private final File cacheFile;
+
+    private final int maxEntries;
+
+    private final Map<String, Entry> entries;
+
+    private final Gson gson;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param cacheFile  file the index is loaded from and saved to.
+     * @param maxEntries maximum number of entries to keep when saving.
+     */
+    public ChecksumCache(File cacheFile, int maxEntries) {
+        this.cacheFile = cacheFile;
+        this.maxEntries = maxEntries;
+        this.entries = new ConcurrentHashMap<String, Entry>();
+        this.gson = new Gson();
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Loads the index from the cache file, if it exists.
+     *
+     * @throws IOException in case the file can not be read or is corrupted, the cache is left empty.
+     */
+    public void load() throws IOException {
+        entries.clear();
+        if (!cacheFile.isFile()) {
+            return;
+        }
+
+        Map<String, Entry> loaded = new ConcurrentHashMap<String, Entry>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(cacheFile)), StandardCharsets.UTF_8))) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Unknown checksum cache format");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(TRAILER_PREFIX)) {
+                    int count = Integer.parseInt(line.substring(TRAILER_PREFIX.length()));
+                    if (count != loaded.size() || reader.readLine() != null) {
+                        throw new IOException("Checksum cache entry count mismatch");
+                    }
+                    entries.putAll(loaded);
+                    return;
+                }
+                Entry entry = gson.fromJson(line, Entry.class);
+                if (entry == null || entry.path == null || entry.dependency == null) {
+                    throw new IOException("Invalid checksum cache entry");
+                }
+                loaded.put(entry.path, entry);
+            }
+            throw new IOException("Checksum cache is truncated");
+        } catch (EOFException | ZipException e) {
+            throw new IOException("Checksum cache is corrupted", e);
+        } catch (JsonParseException | NumberFormatException e) {
+            throw new IOException("Checksum cache is corrupted: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the attributes an entry of the given file is validated against.
+     * <p>
+     * Attributes of a file to be hashed are to be read before its content, so that a file modified while being
+     * hashed is cached with its former attributes and recalculated on the next run.
+     *
+     * @param file dependency file.
+     * @return the file attributes.
+     * @throws IOException in case the file attributes can not be read.
+     */
+    public static BasicFileAttributes readAttributes(File file) throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    }
+
+    /**
+     * Returns the cached dependency info for the given file, if the file was not changed since it was cached.
+     *
+     * @param file       dependency file.
+     * @param attributes current attributes of the file, see {@link #readAttributes(File)}.
+     * @return a new dependency info with the cached checksums, or null if none is usable.
+     * @throws IOException in case the canonical path of the file can not be resolved.
+     */
+    public DependencyInfo get(File file, BasicFileAttributes attributes) throws IOException {
+        String path = file.getCanonicalPath();
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.length != attributes.size()
+                || entry.lastModified != attributes.lastModifiedTime().toMillis()
+                || !equals(entry.fileKey, fileKey(attributes))) {
+            entries.remove(path);
+            return null;
+        }
+
+        DependencyInfo dependency = gson.fromJson(entry.dependency, DependencyInfo.class);
+        dependency.setFilename(file.getName());
+        dependency.setArtifactId(file.getName());
+        dependency.setSystemPath(file.getAbsolutePath());
+        entry.lastUsed = System.currentTimeMillis();
+        return dependency;
+    }
+
+    /**
+     * Caches the checksums of the given dependency.
+     *
+     * @param file       dependency file.
+     * @param attributes attributes of the file read before its content, see {@link #readAttributes(File)}.
+     * @param dependency dependency info calculated for the file.
+     * @throws IOException in case the canonical path of the file can not be resolved.
+     */
+    public void put(File file, BasicFileAttributes attributes, DependencyInfo dependency) throws IOException {
+        Entry entry = new Entry();
+        entry.path = file.getCanonicalPath();
+        entry.length = attributes.size();
+        entry.lastModified = attributes.lastModifiedTime().toMillis();
+        entry.fileKey = fileKey(attributes);
+        entry.lastUsed = System.currentTimeMillis();
+        entry.dependency = gson.toJson(dependency);
+        entries.put(entry.path, entry);
+    }
+
+    /**
+     * Saves the index to the cache file.
+     * <p>
+     * Entries of files which no longer exist are dropped, and the least recently used entries are evicted
+     * when there are more than the maximum allowed. The file is written to a temporary file first and then
+     * moved over the cache file, so readers never see a partially written index.
+     *
+     * @throws IOException in case the cache file can not be written.
+     */
+    public void save() throws IOException {
+        List<Entry> toSave = new ArrayList<Entry>();
+        for (Entry entry : entries.values()) {
+            if (new File(entry.path).isFile()) {
+                toSave.add(entry);
+            }
+        }
+        if (toSave.size() > maxEntries) {
+            Collections.sort(toSave, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry e1, Entry e2) {
+                    return Long.compare(e2.lastUsed, e1.lastUsed);
+                }
+            });
+            toSave = toSave.subList(0, maxEntries);
+        }
+
+        File tempFile = IoUtils.createTempFileFor(cacheFile);
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(tempFile)), StandardCharsets.UTF_8))) {
+                writer.write(HEADER);
+                writer.write('\n');
+                for (Entry entry : toSave) {
+                    writer.write(gson.toJson(entry));
+                    writer.write('\n');
+                }
+                writer.write(TRAILER_PREFIX + toSave.size());
+                writer.write('\n');
+            }
+            IoUtils.moveAtomically(tempFile, cacheFile);
+        } finally {
+            IoUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * @return number of entries currently in the cache.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /* --- Private methods --- */
+
+    private static String fileKey(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        return fileKey == null ? null : fileKey.toString();
+    }
+
+    private static boolean equals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    /* --- Nested classes --- */
+
+    private static class Entry {
+
+        private String path;
+
+        private long length;
+
+        private long lastModified;
+
+        private String fileKey;
+
+        private long lastUsed;
+
+        /**
+         * Dependency info serialized as JSON, kept as a string to avoid holding the object graph in memory.
+         */
+        private String dependency;
+    }
+}
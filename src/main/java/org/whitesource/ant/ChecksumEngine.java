@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.whitesource.agent.api.model.ChecksumType;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Calculates several message digests of a file while reading it only once.
+ * <p>
+ * The file is streamed through a direct buffer which is reused by all calls made on the same thread,
+ * and every chunk read is fed to all configured digests. Files larger than the mapping threshold are
+ * hashed through memory mapped windows instead, each unmapped once hashed, falling back to streaming through
+ * a larger buffer where the file system does not support mapping. Results are lower case hex strings, identical to the ones
+ * produced by the agent-api <code>ChecksumUtils</code>.
+ */
+public class ChecksumEngine {
+
+    /* --- Static members --- */
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int LARGE_BUFFER_SIZE = 1024 * 1024;
+
+    private static final long MAPPED_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private static final ThreadLocal<ByteBuffer> LARGE_BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(LARGE_BUFFER_SIZE);
+        }
+    };
+
+    /* --- Members --- */
+
+    /**
+     * Checksum types to calculate, mapped to their JCA algorithm name.
+     */
+    private final Map<ChecksumType, String> algorithms;
+
+    /**
+     * Minimal file size, in bytes, for which memory mapping is used. Zero or less disables mapping.
+     */
+    private long mappingThreshold;
+
+    /* --- Constructors --- */
+
+    /**
+     * Default constructor, calculates SHA-1 and MD5.
+     */
+    public ChecksumEngine() {
+        algorithms = new LinkedHashMap<ChecksumType, String>();
+        algorithms.put(ChecksumType.SHA1, "SHA-1");
+        algorithms.put(ChecksumType.MD5, "MD5");
+        mappingThreshold = Constants.DEFAULT_MAPPING_THRESHOLD;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param algorithms checksum types to calculate, mapped to their JCA algorithm name.
+     */
+    public ChecksumEngine(Map<ChecksumType, String> algorithms) {
+        this.algorithms = new LinkedHashMap<ChecksumType, String>(algorithms);
+        this.mappingThreshold = Constants.DEFAULT_MAPPING_THRESHOLD;
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Calculates all configured checksums of the given file.
+     *
+     * @param file file to read.
+     * @return calculated checksums, by type.
+     * @throws IOException in case the file can not be read.
+     */
+    public Map<ChecksumType, String> calculate(File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (mappingThreshold <= 0 || size < mappingThreshold) {
+                return toHex(stream(channel, BUFFERS.get()));
+            }
+
+            try {
+                return toHex(map(channel, size));
+            } catch (IOException e) {
+                // mapping is not supported by all file systems, stream the file instead
+                channel.position(0);
+                return toHex(stream(channel, LARGE_BUFFERS.get()));
+            }
+        }
+    }
+
+    /* --- Getters / Setters --- */
+
+    public long getMappingThreshold() {
+        return mappingThreshold;
+    }
+
+    public void setMappingThreshold(long mappingThreshold) {
+        this.mappingThreshold = mappingThreshold;
+    }
+
+    /* --- Private methods --- */
+
+    private Map<ChecksumType, MessageDigest> stream(FileChannel channel, ByteBuffer buffer) throws IOException {
+        Map<ChecksumType, MessageDigest> digests = createDigests();
+        try {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                update(digests, buffer);
+                buffer.clear();
+            }
+        } finally {
+            buffer.clear();
+        }
+        return digests;
+    }
+
+    private Map<ChecksumType, MessageDigest> map(FileChannel channel, long size) throws IOException {
+        Map<ChecksumType, MessageDigest> digests = createDigests();
+        for (long position = 0; position < size; position += MAPPED_WINDOW_SIZE) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_WINDOW_SIZE, size - position));
+            try {
+                update(digests, window);
+            } finally {
+                IoUtils.unmap(window);
+            }
+        }
+        return digests;
+    }
+
+    private Map<ChecksumType, MessageDigest> createDigests() {
+        Map<ChecksumType, MessageDigest> digests = new EnumMap<ChecksumType, MessageDigest>(ChecksumType.class);
+        for (Map.Entry<ChecksumType, String> entry : algorithms.entrySet()) {
+            try {
+                digests.put(entry.getKey(), MessageDigest.getInstance(entry.getValue()));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Unsupported hash algorithm " + entry.getValue(), e);
+            }
+        }
+        return digests;
+    }
+
+    private static void update(Map<ChecksumType, MessageDigest> digests, ByteBuffer buffer) {
+        int position = buffer.position();
+        for (MessageDigest digest : digests.values()) {
+            buffer.position(position);
+            digest.update(buffer);
+        }
+    }
+
+    private static Map<ChecksumType, String> toHex(Map<ChecksumType, MessageDigest> digests) {
+        Map<ChecksumType, String> checksums = new EnumMap<ChecksumType, String>(ChecksumType.class);
+        for (Map.Entry<ChecksumType, MessageDigest> entry : digests.entrySet()) {
+            checksums.put(entry.getKey(), IoUtils.toHex(entry.getValue().digest()));
+        }
+        return checksums;
+    }
+}
@@ -35,6 +35,34 @@ public final class Constants {
 
 	public static final String PLUGIN_VERSION = "18.10.3";
 
+    /**
+     * Service requests are sent by the agent client.
+     */
+    public static final String TRANSPORT_DEFAULT = "default";
+
+    /**
+     * Service requests are serialized and compressed as they are sent, see {@link StreamingWhitesourceService}.
+     */
+    public static final String TRANSPORT_STREAMING = "streaming";
+
+    /**
+     * Policy check report generated by the agent report module.
+     */
+    public static final String REPORT_FORMAT_LEGACY = "legacy";
+
+    /**
+     * Policy check report formats streamed in a single pass, see {@link PolicyReportWriter}.
+     */
+    public static final List<String> STREAMED_REPORT_FORMATS = Arrays.asList("html", "json", "csv");
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 60;
+
+    public static final int DEFAULT_READ_TIMEOUT_SECONDS = 600;
+
+    public static final long DEFAULT_RETRY_BACKOFF_MILLIS = 1000;
+
+    public static final long MAX_RETRY_BACKOFF_MILLIS = 30 * 1000;
+
     public static final List<String> DEFAULT_SCAN_EXTENSIONS = new ArrayList<String>();
     static {
         DEFAULT_SCAN_EXTENSIONS.addAll(
@@ -44,6 +72,21 @@ public final class Constants {
                         "swc", "swf"));
     }
 
+    public static final int DEFAULT_CHECKSUM_CACHE_SIZE = 100000;
+
+    /**
+     * Archives carrying a manifest, whose fingerprints can be looked up in a {@link KnownArtifactIndex}.
+     */
+    public static final List<String> KNOWN_ARTIFACT_EXTENSIONS = Arrays.asList("jar", "war", "ear", "par", "rar");
+
+    public static final long DEFAULT_MAPPING_THRESHOLD = 64L * 1024 * 1024;
+
+    public static final long DEFAULT_POLICY_CACHE_TTL_MINUTES = 60;
+
+    public static final int DEFAULT_DEEP_SCAN_DEPTH = 3;
+
+    public static final long DEFAULT_DEEP_SCAN_LIMIT = 1024L * 1024 * 1024;
+
 	/* --- Constructors --- */
 	
 	/**
@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.Gson;
+import org.whitesource.agent.api.model.DependencyInfo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Task wide index of fingerprinted files, used to fingerprint each distinct file only once.
+ * <p>
+ * Files are first matched by canonical path, so a file referenced by several modules or paths is
+ * fingerprinted once and each of them gets a copy of its {@link DependencyInfo}, with its own path.
+ * Copies of the same content in different locations are detected by length, then by a digest of the
+ * first bytes and finally by SHA-1, and get a copy of the already calculated dependency info.
+ */
+public class ContentIndex {
+
+    /* --- Static members --- */
+
+    private static final int PREFIX_SIZE = 8 * 1024;
+
+    /* --- Members --- */
+
+    private final ConcurrentMap<String, Future<DependencyInfo>> byPath;
+
+    private final Map<Long, List<Candidate>> byLength;
+
+    private final Gson gson;
+
+    /* --- Constructors --- */
+
+    public ContentIndex() {
+        byPath = new ConcurrentHashMap<String, Future<DependencyInfo>>();
+        byLength = new HashMap<Long, List<Candidate>>();
+        gson = new Gson();
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Returns the dependency info of the given file, creating it with the given factory the first time
+     * the file's canonical path is seen. Concurrent calls for the same file wait for a single creation.
+     *
+     * @param file    dependency file.
+     * @param factory creates the dependency info of the file, may return null on failure.
+     * @return dependency info of the file, a copy with the given file's name and path if it was created for
+     * another path, or null if it could not be created.
+     * @throws IOException in case the canonical path of the file can not be resolved.
+     */
+    public DependencyInfo get(File file, Callable<DependencyInfo> factory) throws IOException {
+        String path = file.getCanonicalPath();
+        FutureTask<DependencyInfo> task = new FutureTask<DependencyInfo>(factory);
+        Future<DependencyInfo> existing = byPath.putIfAbsent(path, task);
+        if (existing == null) {
+            task.run();
+            existing = task;
+        }
+
+        try {
+            DependencyInfo dependency = existing.get();
+            return existing == task || dependency == null ? dependency : copy(dependency, file);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + file, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Checks, without reading the whole file, whether another indexed file may have the same content.
+     *
+     * @param file      dependency file.
+     * @param ioLimiter limiter each file's leading bytes are read under, null to read without a limit.
+     * @return true if an indexed file has the same length and the same leading bytes.
+     * @throws IOException in case the file can not be read.
+     */
+    public boolean mayHaveCopy(File file, IoLimiter ioLimiter) throws IOException {
+        List<Candidate> candidates = candidates(file.length());
+        if (candidates.isEmpty()) {
+            return false;
+        }
+        String prefix = prefixDigest(file, ioLimiter);
+        for (Candidate candidate : candidates) {
+            if (prefix.equals(candidate.getPrefix(ioLimiter))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds an indexed file with the same content and returns a copy of its dependency info for the given file.
+     *
+     * @param file dependency file.
+     * @param sha1 SHA-1 checksum of the file.
+     * @return a new dependency info for the given file, or null if no copy was indexed.
+     */
+    public DependencyInfo findCopy(File file, String sha1) {
+        for (Candidate candidate : candidates(file.length())) {
+            DependencyInfo dependency = candidate.getDependency();
+            if (sha1.equals(dependency.getSha1())) {
+                return copy(dependency, file);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Registers a fingerprinted file as a candidate for copy detection.
+     *
+     * @param file       dependency file.
+     * @param dependency dependency info of the file.
+     */
+    public void addCandidate(File file, DependencyInfo dependency) {
+        Candidate candidate = new Candidate(file, dependency);
+        synchronized (byLength) {
+            List<Candidate> candidates = byLength.get(file.length());
+            if (candidates == null) {
+                candidates = new ArrayList<Candidate>(1);
+                byLength.put(file.length(), candidates);
+            }
+            candidates.add(candidate);
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private DependencyInfo copy(DependencyInfo dependency, File file) {
+        DependencyInfo copy = gson.fromJson(gson.toJson(dependency), DependencyInfo.class);
+        copy.setFilename(file.getName());
+        copy.setArtifactId(file.getName());
+        copy.setSystemPath(file.getAbsolutePath());
+        return copy;
+    }
+
+    private List<Candidate> candidates(long length) {
+        synchronized (byLength) {
+            List<Candidate> candidates = byLength.get(length);
+            return candidates == null ? Collections.<Candidate>emptyList() : new ArrayList<Candidate>(candidates);
+        }
+    }
+
+    private static String prefixDigest(File file, IoLimiter ioLimiter) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (ioLimiter != null) {
+            try {
+                ioLimiter.acquire(file);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to read " + file, e);
+            }
+        }
+        byte[] buffer = new byte[PREFIX_SIZE];
+        try (InputStream is = new FileInputStream(file)) {
+            int total = 0;
+            int read;
+            while (total < buffer.length && (read = is.read(buffer, total, buffer.length - total)) != -1) {
+                total += read;
+            }
+            digest.update(buffer, 0, total);
+        } finally {
+            if (ioLimiter != null) {
+                ioLimiter.release(file);
+            }
+        }
+        return new BigInteger(1, digest.digest()).toString(16);
+    }
+
+    /* --- Nested classes --- */
+
+    /**
+     * Fingerprinted file whose prefix digest is calculated on first use.
+     */
+    private static class Candidate {
+
+        private final File file;
+
+        private final DependencyInfo dependency;
+
+        private String prefix;
+
+        private Candidate(File file, DependencyInfo dependency) {
+            this.file = file;
+            this.dependency = dependency;
+        }
+
+        private synchronized String getPrefix(IoLimiter ioLimiter) throws IOException {
+            if (prefix == null) {
+                prefix = prefixDigest(file, ioLimiter);
+            }
+            return prefix;
+        }
+
+        private DependencyInfo getDependency() {
+            return dependency;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ant's default excludes, as returned by {@link DirectoryScanner#getDefaultExcludes()} when created, applied to
+ * paths relative to a scanned directory.
+ * <p>
+ * A directory is pruned when a pattern ending with <code>/**</code> excludes all of its content, as ant's directory
+ * scanner does, so version control metadata is not walked. A file is excluded when any pattern matches its path.
+ */
+public class DefaultExcludes {
+
+    /* --- Static members --- */
+
+    private static final String ALL_CONTENT = File.separator + "**";
+
+    /* --- Members --- */
+
+    private final List<String> patterns;
+
+    /**
+     * Patterns of the directories whose content is excluded, without the trailing <code>/**</code>.
+     */
+    private final List<String> directoryPatterns;
+
+    /* --- Constructors --- */
+
+    public DefaultExcludes() {
+        patterns = new ArrayList<String>();
+        directoryPatterns = new ArrayList<String>();
+        for (String pattern : DirectoryScanner.getDefaultExcludes()) {
+            pattern = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+            if (pattern.endsWith(File.separator)) {
+                pattern += "**";
+            }
+            patterns.add(pattern);
+            if (pattern.endsWith(ALL_CONTENT)) {
+                directoryPatterns.add(pattern.substring(0, pattern.length() - ALL_CONTENT.length()));
+            }
+        }
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * @param relativePath path of the directory relative to the scanned directory.
+     * @return true if the whole content of the directory is excluded.
+     */
+    public boolean excludesDirectory(String relativePath) {
+        for (String pattern : directoryPatterns) {
+            if (SelectorUtils.matchPath(pattern, relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param relativePath path of the file relative to the scanned directory.
+     * @return true if the file is excluded.
+     */
+    public boolean excludesFile(String relativePath) {
+        for (String pattern : patterns) {
+            if (SelectorUtils.matchPath(pattern, relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
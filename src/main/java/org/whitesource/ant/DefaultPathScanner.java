@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.FileResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Lists the files of the default module, in place of a file set with a <code>**&#47;*.extension</code>
+ * include pattern per scanned extension.
+ * <p>
+ * The tree is walked once with {@link Files#walkFileTree}, excluded directories are pruned before they are
+ * entered and file names are matched with an {@link ExtensionMatcher}. Ant's {@link DefaultExcludes} are applied
+ * as well, so the result is the same set of files the equivalent file set yields.
+ * With a parallelism above one, each directory is listed as a separate fork join task instead.
+ */
+public class DefaultPathScanner implements ResourceCollection {
+
+    /* --- Members --- */
+
+    private final File baseDir;
+
+    private final ExtensionMatcher matcher;
+
+    /**
+     * Directory names, or paths relative to the base directory, not to descend into.
+     */
+    private final Set<String> excludedDirs;
+
+    private final DefaultExcludes defaultExcludes;
+
+    private final int parallelism;
+
+    private List<File> files;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param baseDir      directory to scan.
+     * @param extensions   extensions of the files to list.
+     * @param excludedDirs directory names, or '/' separated paths relative to the base directory, to prune.
+     * @param parallelism  number of threads walking subtrees, 1 walks the whole tree on the calling thread.
+     */
+    public DefaultPathScanner(File baseDir, Collection<String> extensions, Collection<String> excludedDirs, int parallelism) {
+        this.baseDir = baseDir;
+        this.matcher = new ExtensionMatcher(extensions);
+        this.excludedDirs = new HashSet<String>(excludedDirs);
+        this.defaultExcludes = new DefaultExcludes();
+        this.parallelism = parallelism;
+    }
+
+    /* --- Overridden ResourceCollection methods --- */
+
+    @Override
+    public Iterator iterator() {
+        List<FileResource> resources = new ArrayList<FileResource>();
+        for (File file : getFiles()) {
+            resources.add(new FileResource(file));
+        }
+        return resources.iterator();
+    }
+
+    @Override
+    public int size() {
+        return getFiles().size();
+    }
+
+    @Override
+    public boolean isFilesystemOnly() {
+        return true;
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * @return matching files, sorted by path. The tree is scanned on the first call only.
+     */
+    public synchronized List<File> getFiles() {
+        if (files == null) {
+            try {
+                files = scan();
+            } catch (IOException e) {
+                throw new BuildException("Failed to scan " + baseDir + ": " + e.getMessage(), e);
+            }
+        }
+        return files;
+    }
+
+    /* --- Private methods --- */
+
+    private List<File> scan() throws IOException {
+        final Path base = baseDir.toPath();
+        final Collection<File> found = new ConcurrentLinkedQueue<File>();
+        if (parallelism > 1) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new SubtreeScan(base, base, found, Collections.<Path>emptySet()));
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            walk(base, found);
+        }
+
+        List<File> result = new ArrayList<File>(found);
+        Collections.sort(result);
+        return result;
+    }
+
+    private void walk(final Path base, final Collection<File> found) throws IOException {
+        Files.walkFileTree(base, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return isExcluded(base, dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isDirectory() && isIncluded(base, file)) {
+                    found.add(file.toFile().getAbsoluteFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // unreadable files and symbolic link loops are skipped, as ant's directory scanner does
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private boolean isExcluded(Path base, Path dir) {
+        if (dir.equals(base)) {
+            return false;
+        }
+        Path name = dir.getFileName();
+        if (name != null && excludedDirs.contains(name.toString())) {
+            return true;
+        }
+        String relativePath = base.relativize(dir).toString();
+        return defaultExcludes.excludesDirectory(relativePath)
+                || excludedDirs.contains(relativePath.replace(File.separatorChar, '/'));
+    }
+
+    private boolean isIncluded(Path base, Path file) {
+        return matcher.matches(file.getFileName().toString())
+                && !defaultExcludes.excludesFile(base.relativize(file).toString());
+    }
+
+    /* --- Nested classes --- */
+
+    /**
+     * Lists a directory and walks each of its subdirectories as a separate fork join task.
+     */
+    private class SubtreeScan extends RecursiveAction {
+
+        private final Path base;
+
+        private final Path dir;
+
+        private final Collection<File> found;
+
+        /**
+         * Real paths of the directories above this one, to detect symbolic link loops.
+         */
+        private final Set<Path> ancestors;
+
+        private SubtreeScan(Path base, Path dir, Collection<File> found, Set<Path> ancestors) {
+            this.base = base;
+            this.dir = dir;
+            this.found = found;
+            this.ancestors = ancestors;
+        }
+
+        @Override
+        protected void compute() {
+            List<SubtreeScan> subtrees = new ArrayList<SubtreeScan>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                Path realPath = dir.toRealPath();
+                if (ancestors.contains(realPath)) {
+                    return;
+                }
+                Set<Path> childAncestors = new HashSet<Path>(ancestors);
+                childAncestors.add(realPath);
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry)) {
+                        if (!isExcluded(base, entry)) {
+                            subtrees.add(new SubtreeScan(base, entry, found, childAncestors));
+                        }
+                    } else if (isIncluded(base, entry)) {
+                        found.add(entry.toFile().getAbsoluteFile());
+                    }
+                }
+            } catch (IOException e) {
+                // unreadable directories are skipped, as ant's directory scanner does
+                return;
+            }
+            invokeAll(subtrees);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Matches file names against a set of extensions using a trie of reversed suffixes.
+ * <p>
+ * A name matches an extension the same way it matches the ant pattern <code>*.extension</code>,
+ * case sensitive, walking the name backwards only as far as the longest extension requires.
+ */
+public class ExtensionMatcher {
+
+    /* --- Members --- */
+
+    private final Node root;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param extensions extensions to match, without the leading dot (i.e. "jar", "tar.gz").
+     */
+    public ExtensionMatcher(Collection<String> extensions) {
+        root = new Node();
+        for (String extension : extensions) {
+            String suffix = "." + extension;
+            Node node = root;
+            for (int i = suffix.length() - 1; i >= 0; i--) {
+                node = node.getOrAddChild(suffix.charAt(i));
+            }
+            node.terminal = true;
+        }
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * @param fileName name of the file, without its directory.
+     * @return true if the name ends with one of the extensions.
+     */
+    public boolean matches(String fileName) {
+        Node node = root;
+        for (int i = fileName.length() - 1; i >= 0; i--) {
+            node = node.getChild(fileName.charAt(i));
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* --- Nested classes --- */
+
+    private static class Node {
+
+        private char[] keys = new char[0];
+
+        private Node[] children = new Node[0];
+
+        private boolean terminal;
+
+        private Node getChild(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node getOrAddChild(char c) {
+            Node child = getChild(c);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.whitesource.agent.api.model.AgentProjectInfo;
+import org.whitesource.agent.api.model.DependencyInfo;
+import org.whitesource.agent.client.WssServiceException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Merges the modules of several capture files into a single inventory, streaming it to an {@link InventorySubmitter}.
+ * <p>
+ * The files are read twice: first to count the files each module appears in, then to send the modules.
+ * A module found in a single file is sent as soon as it is read, only modules split across files are kept
+ * in memory until their last part was read. Dependencies of merged modules are deduplicated by file name
+ * and SHA-1.
+ */
+public class InventoryCaptureMerger {
+
+    /* --- Members --- */
+
+    private final List<File> captureFiles;
+
+    /* --- Constructors --- */
+
+    public InventoryCaptureMerger(List<File> captureFiles) {
+        this.captureFiles = captureFiles;
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Reads all capture files, adding each merged module to the given started submitter.
+     *
+     * @return number of modules added.
+     * @throws IOException         in case a capture file can not be read or is corrupted, nothing is added then.
+     * @throws WssServiceException if a request sent by the submitter failed.
+     */
+    public int merge(InventorySubmitter submitter) throws IOException, WssServiceException {
+        // count the parts of each module, this also validates all files before anything is sent
+        Map<String, Integer> remainingParts = new HashMap<String, Integer>();
+        for (File captureFile : captureFiles) {
+            try (InventoryCaptureReader reader = new InventoryCaptureReader(captureFile)) {
+                reader.open();
+                AgentProjectInfo projectInfo;
+                while ((projectInfo = reader.next()) != null) {
+                    String key = InventoryManifest.moduleKey(projectInfo);
+                    Integer parts = remainingParts.get(key);
+                    remainingParts.put(key, parts == null ? 1 : parts + 1);
+                }
+            }
+        }
+
+        int modules = 0;
+        Map<String, AgentProjectInfo> pending = new HashMap<String, AgentProjectInfo>();
+        for (File captureFile : captureFiles) {
+            try (InventoryCaptureReader reader = new InventoryCaptureReader(captureFile)) {
+                reader.open();
+                AgentProjectInfo projectInfo;
+                while ((projectInfo = reader.next()) != null) {
+                    String key = InventoryManifest.moduleKey(projectInfo);
+                    int parts = remainingParts.get(key);
+                    if (parts == 1 && !pending.containsKey(key)) {
+                        submitter.add(projectInfo);
+                        modules++;
+                        continue;
+                    }
+
+                    AgentProjectInfo merged = pending.get(key);
+                    if (merged == null) {
+                        pending.put(key, projectInfo);
+                    } else {
+                        addDependencies(merged, projectInfo.getDependencies());
+                    }
+                    remainingParts.put(key, parts - 1);
+                    if (parts == 1) {
+                        submitter.add(pending.remove(key));
+                        modules++;
+                    }
+                }
+            }
+        }
+        return modules;
+    }
+
+    /* --- Private methods --- */
+
+    private static void addDependencies(AgentProjectInfo projectInfo, Collection<DependencyInfo> dependencies) {
+        Set<String> existing = new HashSet<String>();
+        for (DependencyInfo dependency : projectInfo.getDependencies()) {
+            existing.add(dependency.getFilename() + '|' + dependency.getSha1());
+        }
+        for (DependencyInfo dependency : dependencies) {
+            if (existing.add(dependency.getFilename() + '|' + dependency.getSha1())) {
+                projectInfo.getDependencies().add(dependency);
+            }
+        }
+    }
+}
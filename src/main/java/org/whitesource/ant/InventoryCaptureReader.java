@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the modules of a capture file written by an {@link InventoryCaptureWriter}, one at a time.
+ */
+public class InventoryCaptureReader implements Closeable {
+
+    /* --- Members --- */
+
+    private final File captureFile;
+
+    private final Gson gson;
+
+    private BufferedReader reader;
+
+    private int modules;
+
+    /* --- Constructors --- */
+
+    public InventoryCaptureReader(File captureFile) {
+        this.captureFile = captureFile;
+        this.gson = new Gson();
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Opens the file and checks its header.
+     *
+     * @throws IOException in case the file can not be read or is not a capture file.
+     */
+    public void open() throws IOException {
+        reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(captureFile)), StandardCharsets.UTF_8));
+        try {
+            if (!InventoryCaptureWriter.HEADER.equals(reader.readLine())) {
+                throw new IOException("Unknown inventory capture format: " + captureFile);
+            }
+        } catch (EOFException | ZipException e) {
+            throw new IOException("Inventory capture is corrupted: " + captureFile, e);
+        }
+    }
+
+    /**
+     * @return the next module, null once all modules were read.
+     * @throws IOException in case the file can not be read, is truncated or corrupted.
+     */
+    public AgentProjectInfo next() throws IOException {
+        try {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Inventory capture is truncated: " + captureFile);
+            }
+            if (line.startsWith(InventoryCaptureWriter.TRAILER_PREFIX)) {
+                int count = Integer.parseInt(line.substring(InventoryCaptureWriter.TRAILER_PREFIX.length()));
+                if (count != modules || reader.readLine() != null) {
+                    throw new IOException("Inventory capture module count mismatch: " + captureFile);
+                }
+                return null;
+            }
+            AgentProjectInfo projectInfo = gson.fromJson(line, AgentProjectInfo.class);
+            if (projectInfo == null) {
+                throw new IOException("Invalid inventory capture module: " + captureFile);
+            }
+            modules++;
+            return projectInfo;
+        } catch (EOFException | ZipException e) {
+            throw new IOException("Inventory capture is corrupted: " + captureFile, e);
+        } catch (JsonParseException | NumberFormatException e) {
+            throw new IOException("Inventory capture is corrupted: " + captureFile + ", " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+}
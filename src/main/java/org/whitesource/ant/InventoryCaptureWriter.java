@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.Gson;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes an inventory to a capture file, to be sent to White Source later by the {@link WhitesourceReplayTask}.
+ * <p>
+ * A capture file is gzip compressed, holding a version header line, one JSON line per module and a module
+ * count trailer, so it can be written and read one module at a time. The file is written to a temporary
+ * file and only replaces the target when closed after a successful capture.
+ */
+public class InventoryCaptureWriter implements Closeable {
+
+    /* --- Static members --- */
+
+    static final String HEADER = "whitesource-inventory-capture-v1";
+
+    static final String TRAILER_PREFIX = "modules:";
+
+    /* --- Members --- */
+
+    private final File captureFile;
+
+    private final Gson gson;
+
+    private File tempFile;
+
+    private Writer writer;
+
+    private int modules;
+
+    /* --- Constructors --- */
+
+    public InventoryCaptureWriter(File captureFile) {
+        this.captureFile = captureFile;
+        this.gson = new Gson();
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Creates the temporary file and writes the header.
+     *
+     * @throws IOException in case the file can not be created.
+     */
+    public void open() throws IOException {
+        tempFile = IoUtils.createTempFileFor(captureFile);
+        writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tempFile)), StandardCharsets.UTF_8));
+        writer.write(HEADER);
+        writer.write('\n');
+    }
+
+    /**
+     * Appends a module to the capture.
+     */
+    public void write(AgentProjectInfo projectInfo) throws IOException {
+        gson.toJson(projectInfo, AgentProjectInfo.class, writer);
+        writer.write('\n');
+        modules++;
+    }
+
+    /**
+     * Writes the trailer and moves the capture over the target file.
+     */
+    public void commit() throws IOException {
+        writer.write(TRAILER_PREFIX + modules);
+        writer.write('\n');
+        writer.close();
+        writer = null;
+        IoUtils.moveAtomically(tempFile, captureFile);
+    }
+
+    /**
+     * Discards the temporary file, unless the capture was committed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        } finally {
+            if (tempFile != null) {
+                IoUtils.deleteQuietly(tempFile);
+            }
+        }
+    }
+
+    /**
+     * @return number of modules written so far.
+     */
+    public int getModules() {
+        return modules;
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.whitesource.agent.api.model.AgentProjectInfo;
+import org.whitesource.agent.api.model.ChecksumType;
+import org.whitesource.agent.api.model.Coordinates;
+import org.whitesource.agent.api.model.DependencyInfo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Local record of the dependency sets last submitted to White Source, per organization, service, product,
+ * version and module.
+ * <p>
+ * A module's dependency set is summarized by a SHA-1 digest of its sorted dependency file names and checksums,
+ * so an unchanged module can be left out of the next update request.
+ * The manifest is stored as a properties file. Organizations and services are told apart by a digest of the
+ * api key and service url, so the api key is not written to the file.
+ */
+public class InventoryManifest {
+
+    /* --- Static members --- */
+
+    private static final String COMMENT = "White Source inventory manifest, last submitted dependency digest per module";
+
+    /* --- Members --- */
+
+    private final File manifestFile;
+
+    private final Properties digests;
+
+    /**
+     * Digest of the organization api key and service url the modules are submitted to.
+     */
+    private final String scope;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param manifestFile file the manifest is loaded from and saved to.
+     * @param apiKey       api key of the organization the modules are submitted to.
+     * @param serviceUrl   url of the service the modules are submitted to, null for the default service.
+     */
+    public InventoryManifest(File manifestFile, String apiKey, String serviceUrl) {
+        this.manifestFile = manifestFile;
+        this.digests = new Properties();
+        this.scope = sha1(Arrays.asList(apiKey, serviceUrl == null ? "" : serviceUrl));
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Loads the manifest file, if it exists.
+     *
+     * @throws IOException in case the file can not be read, the manifest is left empty.
+     */
+    public void load() throws IOException {
+        digests.clear();
+        if (manifestFile.isFile()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(manifestFile), StandardCharsets.UTF_8)) {
+                digests.load(reader);
+            } catch (IllegalArgumentException e) {
+                digests.clear();
+                throw new IOException("Inventory manifest is corrupted: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the modules whose dependency set differs from the last recorded submission.
+     */
+    public List<AgentProjectInfo> changed(String product, String productVersion, Collection<AgentProjectInfo> projectInfos) {
+        List<AgentProjectInfo> changed = new ArrayList<AgentProjectInfo>();
+        for (AgentProjectInfo projectInfo : projectInfos) {
+            String digest = digests.getProperty(key(product, productVersion, projectInfo));
+            if (digest == null || !digest.equals(digest(projectInfo))) {
+                changed.add(projectInfo);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Records the dependency sets of the given modules as submitted.
+     */
+    public void record(String product, String productVersion, Collection<AgentProjectInfo> projectInfos) {
+        for (AgentProjectInfo projectInfo : projectInfos) {
+            digests.setProperty(key(product, productVersion, projectInfo), digest(projectInfo));
+        }
+    }
+
+    /**
+     * Saves the manifest, replacing the previous file atomically.
+     *
+     * @throws IOException in case the file can not be written.
+     */
+    public void save() throws IOException {
+        File tempFile = IoUtils.createTempFileFor(manifestFile);
+        try {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+                digests.store(writer, COMMENT);
+            }
+            IoUtils.moveAtomically(tempFile, manifestFile);
+        } finally {
+            IoUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private String key(String product, String productVersion, AgentProjectInfo projectInfo) {
+        return scope + '|' + product + '|' + productVersion + '|' + moduleKey(projectInfo);
+    }
+
+    /**
+     * @return the module's identity with White Source, its project name or token.
+     */
+    static String moduleKey(AgentProjectInfo projectInfo) {
+        Coordinates coordinates = projectInfo.getCoordinates();
+        return coordinates == null ? "token:" + projectInfo.getProjectToken() : "name:" + coordinates.getArtifactId();
+    }
+
+    /**
+     * @return SHA-1 digest of the sorted file names and checksums of the module's dependencies.
+     */
+    static String digest(AgentProjectInfo projectInfo) {
+        List<String> fingerprints = new ArrayList<String>();
+        for (DependencyInfo dependency : projectInfo.getDependencies()) {
+            StringBuilder fingerprint = new StringBuilder();
+            fingerprint.append(dependency.getFilename()).append('|').append(dependency.getSha1());
+            for (Map.Entry<ChecksumType, String> checksum : new TreeMap<ChecksumType, String>(dependency.getChecksums()).entrySet()) {
+                fingerprint.append('|').append(checksum.getKey()).append('=').append(checksum.getValue());
+            }
+            fingerprints.add(fingerprint.toString());
+        }
+        Collections.sort(fingerprints);
+        return sha1(fingerprints);
+    }
+
+    /**
+     * @return SHA-1 digest of the given lines.
+     */
+    private static String sha1(List<String> lines) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String line : lines) {
+            digest.update(line.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return IoUtils.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.whitesource.agent.api.dispatch.CheckPolicyComplianceResult;
+import org.whitesource.agent.api.dispatch.UpdateInventoryResult;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+import org.whitesource.agent.client.WssServiceException;
+
+import java.util.Collection;
+
+/**
+ * Requests the White Source tasks send to the service, whatever the transport.
+ * <p>
+ * Implementations are safe for concurrent requests, so a single instance serves a whole task run.
+ *
+ * @see AgentInventoryService
+ * @see StreamingWhitesourceService
+ */
+public interface InventoryService {
+
+    /**
+     * Updates the inventory of the given product with the given modules.
+     */
+    UpdateInventoryResult update(String orgToken, String product, String productVersion,
+                                 Collection<AgentProjectInfo> projectInfos) throws WssServiceException;
+
+    /**
+     * Checks the given modules against the organization policies.
+     */
+    CheckPolicyComplianceResult checkPolicyCompliance(String orgToken, String product, String productVersion,
+                                                      Collection<AgentProjectInfo> projectInfos,
+                                                      boolean forceCheckAllDependencies) throws WssServiceException;
+
+    /**
+     * Aborts the request the given thread is sending, if any, so that it fails rather than completing later.
+     * A request the thread starts once interrupted is aborted as well.
+     */
+    void abort(Thread thread);
+
+    /**
+     * Releases the connections held by the service.
+     */
+    void shutdown();
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.whitesource.agent.api.dispatch.UpdateInventoryResult;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+import org.whitesource.agent.client.WssServiceException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Sends an inventory to White Source in update requests of a bounded number of modules.
+ * <p>
+ * Modules can either be submitted all at once, or be added one by one while the inventory is still
+ * being collected. In the latter case requests are sent from a background thread as soon as a batch
+ * is full, so that sending one batch overlaps with collecting the next one. The queue of added modules
+ * holds at most one batch, so at most two batches are held at a time: the one being sent and the next one.
+ */
+public class InventorySubmitter {
+
+    /* --- Static members --- */
+
+    private static final AgentProjectInfo END_OF_INVENTORY = new AgentProjectInfo();
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    /* --- Members --- */
+
+    private final InventoryService service;
+
+    private final String apiKey;
+
+    private final String product;
+
+    private final String productVersion;
+
+    /**
+     * Maximum number of modules per request, zero or less sends all modules in a single request.
+     */
+    private final int batchSize;
+
+    /**
+     * Records submitted modules, may be null.
+     */
+    private final InventoryManifest manifest;
+
+    private final InventoryUpdateSummary summary;
+
+    /**
+     * Records request durations and payloads, may be null.
+     */
+    private TaskMetrics metrics;
+
+    /**
+     * Retries failed requests, may be null.
+     */
+    private RetryPolicy retryPolicy;
+
+    private BlockingQueue<AgentProjectInfo> queue;
+
+    private ExecutorService executorService;
+
+    private Future<Void> consumer;
+
+    /* --- Constructors --- */
+
+    public InventorySubmitter(InventoryService service, String apiKey, String product, String productVersion,
+                              int batchSize, InventoryManifest manifest) {
+        this.service = service;
+        this.apiKey = apiKey;
+        this.product = product;
+        this.productVersion = productVersion;
+        this.batchSize = batchSize;
+        this.manifest = manifest;
+        this.summary = new InventoryUpdateSummary();
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Sends the given modules, one request per batch, on the calling thread.
+     *
+     * @throws WssServiceException if a request fails, batches sent before it remain in the summary.
+     */
+    public void submit(Collection<AgentProjectInfo> projectInfos) throws WssServiceException {
+        List<AgentProjectInfo> batch = new ArrayList<AgentProjectInfo>();
+        for (AgentProjectInfo projectInfo : projectInfos) {
+            batch.add(projectInfo);
+            if (batch.size() == batchSize) {
+                update(batch);
+                batch = new ArrayList<AgentProjectInfo>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            update(batch);
+        }
+    }
+
+    /**
+     * Starts the background thread sending the modules passed to {@link #add(AgentProjectInfo)}.
+     */
+    public void start() {
+        queue = new ArrayBlockingQueue<AgentProjectInfo>(Math.max(1, batchSize));
+        executorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "whitesource-submitter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        consumer = executorService.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                List<AgentProjectInfo> batch = new ArrayList<AgentProjectInfo>();
+                AgentProjectInfo projectInfo;
+                while ((projectInfo = queue.take()) != END_OF_INVENTORY) {
+                    batch.add(projectInfo);
+                    if (batch.size() == batchSize) {
+                        update(batch);
+                        batch = new ArrayList<AgentProjectInfo>();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    update(batch);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues a module to be sent by the background thread, waiting while the queue is full.
+     *
+     * @throws WssServiceException if a previous request already failed.
+     */
+    public void add(AgentProjectInfo projectInfo) throws WssServiceException {
+        put(projectInfo);
+    }
+
+    /**
+     * Sends the remaining queued modules and waits for all requests to complete.
+     *
+     * @throws WssServiceException if a request failed.
+     */
+    public void finish() throws WssServiceException {
+        put(END_OF_INVENTORY);
+        try {
+            consumer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WssServiceException("Interrupted while updating inventory", e);
+        } catch (ExecutionException e) {
+            throw asServiceException(e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops the background thread, if started, without waiting for queued modules.
+     */
+    public void close() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+    public InventoryUpdateSummary getSummary() {
+        return summary;
+    }
+
+    public void setMetrics(TaskMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /* --- Private methods --- */
+
+    private void update(final List<AgentProjectInfo> batch) throws WssServiceException {
+        RetryPolicy.ServiceCall<UpdateInventoryResult> call = new RetryPolicy.ServiceCall<UpdateInventoryResult>() {
+            @Override
+            public UpdateInventoryResult call() throws WssServiceException {
+                return service.update(apiKey, product, productVersion, batch);
+            }
+        };
+        UpdateInventoryResult result;
+        long start = 0;
+        if (metrics != null) {
+            metrics.addRequest();
+            start = metrics.start();
+        }
+        result = retryPolicy == null ? call.call() : retryPolicy.call("Inventory update", service, call);
+        if (metrics != null) {
+            metrics.stop(TaskMetrics.UPDATE_INVENTORY, start);
+        }
+        summary.add(result);
+        if (manifest != null) {
+            manifest.record(product, productVersion, batch);
+        }
+    }
+
+    private void put(AgentProjectInfo projectInfo) throws WssServiceException {
+        try {
+            while (!queue.offer(projectInfo, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (consumer.isDone()) {
+                    break;
+                }
+            }
+            if (consumer.isDone() && projectInfo != END_OF_INVENTORY) {
+                consumer.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WssServiceException("Interrupted while updating inventory", e);
+        } catch (ExecutionException e) {
+            throw asServiceException(e.getCause());
+        }
+    }
+
+    private static WssServiceException asServiceException(Throwable cause) {
+        if (cause instanceof WssServiceException) {
+            return (WssServiceException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new WssServiceException(cause.getMessage(), cause);
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.tools.ant.Task;
+import org.whitesource.agent.api.dispatch.UpdateInventoryResult;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+/**
+ * Combined results of the update requests sent for a single inventory.
+ */
+public class InventoryUpdateSummary {
+
+    /* --- Members --- */
+
+    private String organization;
+
+    private final Collection<String> createdProjects;
+
+    private final Collection<String> updatedProjects;
+
+    private int requests;
+
+    /* --- Constructors --- */
+
+    public InventoryUpdateSummary() {
+        createdProjects = new LinkedHashSet<String>();
+        updatedProjects = new LinkedHashSet<String>();
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Adds the result of one update request.
+     */
+    public synchronized void add(UpdateInventoryResult result) {
+        requests++;
+        if (organization == null) {
+            organization = result.getOrganization();
+        }
+        if (result.getCreatedProjects() != null) {
+            createdProjects.addAll(result.getCreatedProjects());
+        }
+        if (result.getUpdatedProjects() != null) {
+            updatedProjects.addAll(result.getUpdatedProjects());
+        }
+    }
+
+    /**
+     * Logs the organization and the projects created or updated, if any request was sent.
+     */
+    public void log(Task task) {
+        if (getRequests() == 0) {
+            task.log("No modules to update, White Source was not updated");
+            return;
+        }
+
+        task.log("White Source update results:");
+        task.log("White Source organization: " + getOrganization());
+
+        // newly created projects
+        Collection<String> createdProjects = getCreatedProjects();
+        if (createdProjects.isEmpty()) {
+            task.log("No new projects found");
+        } else {
+            task.log(createdProjects.size() + " Newly created projects:");
+            for (String projectName : createdProjects) {
+                task.log(projectName);
+            }
+        }
+
+        // updated projects
+        Collection<String> updatedProjects = getUpdatedProjects();
+        if (updatedProjects.isEmpty()) {
+            task.log("No projects were updated");
+        } else {
+            task.log(updatedProjects.size() + " existing projects were updated:");
+            for (String projectName : updatedProjects) {
+                task.log(projectName);
+            }
+        }
+    }
+
+    /* --- Getters --- */
+
+    public synchronized String getOrganization() {
+        return organization;
+    }
+
+    public synchronized Collection<String> getCreatedProjects() {
+        return new LinkedHashSet<String>(createdProjects);
+    }
+
+    public synchronized Collection<String> getUpdatedProjects() {
+        return new LinkedHashSet<String>(updatedProjects);
+    }
+
+    /**
+     * @return number of update requests added to this summary.
+     */
+    public synchronized int getRequests() {
+        return requests;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Build wide limit on the number of files read at the same time from each file store by White Source tasks, so that
+ * tasks running under ant's <code>parallel</code> share each disk instead of each reading with all of its threads,
+ * while files on different disks are still read in parallel.
+ * <p>
+ * The limiter is kept as a reference of the build's project and dropped once the build finishes.
+ * Files whose store can not be determined share a single limit.
+ */
+public final class IoLimiter {
+
+    /* --- Static members --- */
+
+    private static final String PROJECT_REFERENCE = "whitesource.ioLimiter";
+
+    /* --- Members --- */
+
+    private final int permits;
+
+    private final ConcurrentMap<FileStore, Semaphore> storeSemaphores;
+
+    private final Semaphore unknownStoreSemaphore;
+
+    /* --- Constructors --- */
+
+    private IoLimiter(int permits) {
+        this.permits = permits;
+        this.storeSemaphores = new ConcurrentHashMap<FileStore, Semaphore>();
+        this.unknownStoreSemaphore = new Semaphore(permits, true);
+    }
+
+    /* --- Static methods --- */
+
+    /**
+     * Returns the limiter of the build of the given project, creating it with the given number of concurrent reads
+     * per file store for the first task of the build. Later tasks of the build get the existing limiter, callers
+     * should check its {@link #getPermits() permits}.
+     */
+    public static IoLimiter forBuild(Project project, int permits) {
+        final IoLimiter limiter;
+        synchronized (project) {
+            Object existing = project.getReference(PROJECT_REFERENCE);
+            if (existing instanceof IoLimiter) {
+                return (IoLimiter) existing;
+            }
+            limiter = new IoLimiter(permits);
+            project.addReference(PROJECT_REFERENCE, limiter);
+        }
+        project.addBuildListener(new BuildListener() {
+            @Override
+            public void buildFinished(BuildEvent event) {
+                Project project = event.getProject();
+                synchronized (project) {
+                    if (project.getReference(PROJECT_REFERENCE) == limiter) {
+                        project.getReferences().remove(PROJECT_REFERENCE);
+                    }
+                }
+                limiter.storeSemaphores.clear();
+                project.removeBuildListener(this);
+            }
+
+            @Override
+            public void buildStarted(BuildEvent event) {
+            }
+
+            @Override
+            public void targetStarted(BuildEvent event) {
+            }
+
+            @Override
+            public void targetFinished(BuildEvent event) {
+            }
+
+            @Override
+            public void taskStarted(BuildEvent event) {
+            }
+
+            @Override
+            public void taskFinished(BuildEvent event) {
+            }
+
+            @Override
+            public void messageLogged(BuildEvent event) {
+            }
+        });
+        return limiter;
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Waits for a read slot on the file store of the given file, to be given back with {@link #release(File)}.
+     */
+    public void acquire(File file) throws InterruptedException {
+        getSemaphore(file).acquire();
+    }
+
+    public void release(File file) {
+        getSemaphore(file).release();
+    }
+
+    /**
+     * @return maximum number of concurrent reads per file store.
+     */
+    public int getPermits() {
+        return permits;
+    }
+
+    /* --- Private methods --- */
+
+    private Semaphore getSemaphore(File file) {
+        Path dir = file.getAbsoluteFile().toPath().getParent();
+        if (dir == null) {
+            return unknownStoreSemaphore;
+        }
+        FileStore store;
+        try {
+            store = Files.getFileStore(dir);
+        } catch (IOException e) {
+            // the directory is not accessible, the read will fail anyway
+            return unknownStoreSemaphore;
+        }
+        Semaphore semaphore = storeSemaphores.get(store);
+        if (semaphore == null) {
+            Semaphore storeSemaphore = new Semaphore(permits, true);
+            semaphore = storeSemaphores.putIfAbsent(store, storeSemaphore);
+            if (semaphore == null) {
+                semaphore = storeSemaphore;
+            }
+        }
+        return semaphore;
+    }
+}
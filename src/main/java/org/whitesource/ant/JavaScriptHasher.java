@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.whitesource.agent.api.model.ChecksumType;
+import org.whitesource.agent.hash.HashCalculator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calculates the JavaScript specific checksums of <code>.js</code> files, as a stage apart from their binary checksums.
+ * <p>
+ * Files are recognized by their extension, case insensitive, without matching a regular expression per file.
+ * Each thread reuses its own {@link HashCalculator}. With threads of its own, the JavaScript checksums of a file
+ * are calculated while the calling thread calculates its binary checksums, otherwise on the calling thread.
+ * Files larger than the size limit, typically minified bundles, are fingerprinted by their binary checksums only.
+ * <p>
+ * With an I/O limiter, the JavaScript checksums are always calculated on the calling thread, under the read slot it
+ * holds for the file. A dedicated thread would need a slot of its own while the calling thread holds one waiting for
+ * it, which deadlocks once the calling threads hold every slot.
+ */
+public class JavaScriptHasher implements Closeable {
+
+    /* --- Static members --- */
+
+    private static final String EXTENSION = ".js";
+
+    /* --- Members --- */
+
+    private final long sizeLimit;
+
+    private final ExecutorService executorService;
+
+    private final ThreadLocal<HashCalculator> calculators = new ThreadLocal<HashCalculator>() {
+        @Override
+        protected HashCalculator initialValue() {
+            return new HashCalculator();
+        }
+    };
+
+    private TaskMetrics metrics;
+
+    private IoLimiter ioLimiter;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param threads   number of threads dedicated to JavaScript checksums, 0 to calculate them on the calling thread.
+     * @param sizeLimit size in bytes above which JavaScript checksums are skipped, 0 for no limit.
+     */
+    public JavaScriptHasher(int threads, long sizeLimit) {
+        this.sizeLimit = sizeLimit;
+        this.metrics = new TaskMetrics();
+        if (threads > 0) {
+            executorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "whitesource-javascript-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            executorService = null;
+        }
+    }
+
+    /* --- Static methods --- */
+
+    /**
+     * @return true if the file name has the JavaScript extension, in any case.
+     */
+    public static boolean isJavaScript(String fileName) {
+        return fileName.regionMatches(true, fileName.length() - EXTENSION.length(), EXTENSION, 0, EXTENSION.length());
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Starts calculating the JavaScript checksums of the given file, or calculates them on the calling thread if
+     * the hasher has no threads of its own or an I/O limiter is set.
+     *
+     * @return the checksums by type, empty if the file exceeds the size limit.
+     */
+    public Future<Map<ChecksumType, String>> submit(final File file) {
+        final long length = file.length();
+        Callable<Map<ChecksumType, String>> calculation = new Callable<Map<ChecksumType, String>>() {
+            @Override
+            public Map<ChecksumType, String> call() throws Exception {
+                if (sizeLimit > 0 && length > sizeLimit) {
+                    metrics.addSkippedJavaScriptFile();
+                    return Collections.emptyMap();
+                }
+                long start = metrics.start();
+                Map<ChecksumType, String> checksums = calculators.get().calculateJavaScriptHashes(file);
+                metrics.stop(TaskMetrics.JAVA_SCRIPT_HASH, start);
+                metrics.addJavaScriptFile(length);
+                return checksums == null ? Collections.<ChecksumType, String>emptyMap() : checksums;
+            }
+        };
+
+        if (executorService == null || ioLimiter != null) {
+            FutureTask<Map<ChecksumType, String>> task = new FutureTask<Map<ChecksumType, String>>(calculation);
+            task.run();
+            return task;
+        }
+        return executorService.submit(calculation);
+    }
+
+    /**
+     * Stops the threads dedicated to JavaScript checksums, if any.
+     */
+    @Override
+    public void close() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+    /* --- Getters / Setters --- */
+
+    /**
+     * @param metrics metrics to record JavaScript hashing in.
+     */
+    public void setMetrics(TaskMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param ioLimiter limiter of the files read concurrently, null to calculate on the dedicated threads, if any.
+     */
+    public void setIoLimiter(IoLimiter ioLimiter) {
+        this.ioLimiter = ioLimiter;
+    }
+}
@@ -0,0 +1,377 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.whitesource.agent.api.model.ChecksumType;
+import org.whitesource.agent.api.model.DependencyInfo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Index of the fingerprints of well known artifacts, used to skip hashing artifacts already seen in any project.
+ * <p>
+ * Artifacts are keyed by the scan settings, their length, a SHA-1 digest of their first and last 64 KB and the
+ * implementation coordinates of their <code>META-INF/MANIFEST.MF</code>, which is cheap to compute regardless of
+ * the artifact size. Only artifacts whose manifest records a release version are indexed, as a snapshot may be
+ * rebuilt with different content under the same coordinates. Unlike the {@link ChecksumCache}, the key does not depend on the location of the file, so the index can
+ * be shared between projects and build nodes. It is stored as a plain text file, one JSON entry per line between
+ * a version header and an entry count trailer, and is merged with the entries saved by others in the meantime
+ * when saved.
+ * <p>
+ * Two artifacts differing only in the middle of their content and in nothing their manifest records would share
+ * a key. When a verification rate is set, that share of the matches is hashed anyway and a false match replaces
+ * the indexed fingerprint.
+ */
+public class KnownArtifactIndex {
+
+    /* --- Static members --- */
+
+    private static final String HEADER = "whitesource-artifact-index-v2";
+
+    private static final String SNAPSHOT = "SNAPSHOT";
+
+    private static final Attributes.Name IMPLEMENTATION_VENDOR_ID = new Attributes.Name("Implementation-Vendor-Id");
+
+    private static final String TRAILER_PREFIX = "entries:";
+
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    /* --- Members --- */
+
+    private final File indexFile;
+
+    private final ExtensionMatcher matcher;
+
+    /**
+     * Settings the indexed fingerprints were created with.
+     */
+    private final String variant;
+
+    private final Map<String, String> entries;
+
+    /**
+     * Keys added or replaced since the index was loaded.
+     */
+    private final Set<String> changed;
+
+    private final Gson gson;
+
+    /**
+     * Percentage of matches to verify by hashing the artifact anyway.
+     */
+    private int verificationRate;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private final AtomicInteger verified = new AtomicInteger();
+
+    private final AtomicInteger falseMatches = new AtomicInteger();
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param indexFile  file the index is loaded from and saved to.
+     * @param extensions extensions of the artifacts to index, without the leading dot.
+     * @param variant    settings the fingerprints are created with, fingerprints indexed with other settings are not used.
+     */
+    public KnownArtifactIndex(File indexFile, Collection<String> extensions, String variant) {
+        this.indexFile = indexFile;
+        this.matcher = new ExtensionMatcher(extensions);
+        this.variant = variant;
+        this.entries = new ConcurrentHashMap<String, String>();
+        this.changed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.gson = new Gson();
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Loads the index file, if it exists.
+     *
+     * @throws IOException in case the file can not be read or is corrupted, the index is left empty.
+     */
+    public void load() throws IOException {
+        entries.clear();
+        changed.clear();
+        entries.putAll(read());
+    }
+
+    /**
+     * @return true if the given file is an artifact this index applies to.
+     */
+    public boolean accepts(File file) {
+        return matcher.matches(file.getName()) && file.length() > 0;
+    }
+
+    /**
+     * Calculates the index key of the given artifact, reading at most its first and last 64 KB and its manifest.
+     *
+     * @return the key, or null if the artifact's manifest records no release version and it is not to be indexed.
+     * @throws IOException in case the file can not be read.
+     */
+    public String key(File file) throws IOException {
+        String coordinates = releaseCoordinates(file);
+        if (coordinates == null) {
+            return null;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        long length;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            length = raf.length();
+            byte[] window = new byte[(int) Math.min(WINDOW_SIZE, length)];
+            raf.readFully(window);
+            digest.update(window);
+            if (length > WINDOW_SIZE) {
+                long tailStart = Math.max(WINDOW_SIZE, length - WINDOW_SIZE);
+                window = new byte[(int) (length - tailStart)];
+                raf.seek(tailStart);
+                raf.readFully(window);
+                digest.update(window);
+            }
+        }
+        return variant + ':' + length + ':' + IoUtils.toHex(digest.digest()) + ':' + coordinates;
+    }
+
+    /**
+     * @return a new dependency info holding the indexed fingerprint for the given file, or null if unknown.
+     */
+    public DependencyInfo get(String key, File file) {
+        String indexed = entries.get(key);
+        if (indexed == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        DependencyInfo dependency = gson.fromJson(indexed, DependencyInfo.class);
+        dependency.setFilename(file.getName());
+        dependency.setArtifactId(file.getName());
+        dependency.setSystemPath(file.getAbsolutePath());
+        return dependency;
+    }
+
+    /**
+     * Indexes the fingerprint of an artifact. Embedded dependencies are left out, as their paths are specific
+     * to the artifact location.
+     */
+    public void put(String key, DependencyInfo dependency) {
+        String indexed = toIndexed(dependency);
+        if (!indexed.equals(entries.put(key, indexed))) {
+            changed.add(key);
+        }
+    }
+
+    /**
+     * @return true if a match should be verified by hashing the artifact, according to the verification rate.
+     */
+    public boolean shouldVerify() {
+        return verificationRate > 0 && ThreadLocalRandom.current().nextInt(100) < verificationRate;
+    }
+
+    /**
+     * Compares the fingerprint calculated for a matched artifact with the indexed one, replacing the indexed
+     * fingerprint if they differ.
+     *
+     * @return true if the match was correct.
+     */
+    public boolean verify(String key, DependencyInfo calculated) {
+        verified.incrementAndGet();
+        DependencyInfo indexed = gson.fromJson(entries.get(key), DependencyInfo.class);
+        if (indexed != null && sameChecksums(indexed, calculated)) {
+            return true;
+        }
+        falseMatches.incrementAndGet();
+        put(key, calculated);
+        return false;
+    }
+
+    /**
+     * Saves the index, merged with the entries saved to the file since it was loaded. Entries of this index
+     * take precedence. Nothing is written if no entry changed.
+     * <p>
+     * The file is written to a temporary file first and then moved over the index file, so that readers never
+     * see a partially written index.
+     *
+     * @throws IOException in case the index file can not be written.
+     */
+    public void save() throws IOException {
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> merged;
+        try {
+            merged = read();
+        } catch (IOException e) {
+            // replace a corrupted index rather than keep failing
+            merged = new HashMap<String, String>();
+        }
+        merged.putAll(entries);
+
+        File tempFile = IoUtils.createTempFileFor(indexFile);
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+                writer.write(HEADER);
+                writer.write('\n');
+                for (Map.Entry<String, String> entry : new TreeMap<String, String>(merged).entrySet()) {
+                    Entry indexEntry = new Entry();
+                    indexEntry.key = entry.getKey();
+                    indexEntry.dependency = entry.getValue();
+                    writer.write(gson.toJson(indexEntry));
+                    writer.write('\n');
+                }
+                writer.write(TRAILER_PREFIX + merged.size());
+                writer.write('\n');
+            }
+            IoUtils.moveAtomically(tempFile, indexFile);
+            changed.clear();
+        } finally {
+            IoUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * @return a one line summary of the index usage.
+     */
+    public String getSummary() {
+        return "Known artifact index: " + hits.get() + " matches, " + misses.get() + " unknown, "
+                + verified.get() + " verified, " + falseMatches.get() + " false matches";
+    }
+
+    /* --- Private methods --- */
+
+    private Map<String, String> read() throws IOException {
+        Map<String, String> loaded = new HashMap<String, String>();
+        if (!indexFile.isFile()) {
+            return loaded;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Unknown artifact index format");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(TRAILER_PREFIX)) {
+                    int count = Integer.parseInt(line.substring(TRAILER_PREFIX.length()));
+                    if (count != loaded.size() || reader.readLine() != null) {
+                        throw new IOException("Artifact index entry count mismatch");
+                    }
+                    return loaded;
+                }
+                Entry entry = gson.fromJson(line, Entry.class);
+                if (entry == null || entry.key == null || entry.dependency == null) {
+                    throw new IOException("Invalid artifact index entry");
+                }
+                loaded.put(entry.key, entry.dependency);
+            }
+            throw new IOException("Artifact index is truncated");
+        } catch (JsonParseException | NumberFormatException e) {
+            throw new IOException("Artifact index is corrupted: " + e.getMessage(), e);
+        }
+    }
+
+    private String toIndexed(DependencyInfo dependency) {
+        DependencyInfo indexed = gson.fromJson(gson.toJson(dependency), DependencyInfo.class);
+        indexed.setFilename(null);
+        indexed.setArtifactId(null);
+        indexed.setSystemPath(null);
+        indexed.setChildren(new ArrayList<DependencyInfo>());
+        return gson.toJson(indexed);
+    }
+
+    private static boolean sameChecksums(DependencyInfo d1, DependencyInfo d2) {
+        return d1.getSha1() != null && d1.getSha1().equals(d2.getSha1())
+                && new TreeMap<ChecksumType, String>(d1.getChecksums()).equals(new TreeMap<ChecksumType, String>(d2.getChecksums()));
+    }
+
+    /**
+     * @return the implementation, or bundle, vendor, title and version recorded by the artifact's manifest,
+     * or null if it records no version or a snapshot version.
+     */
+    private static String releaseCoordinates(File file) {
+        try (JarFile jarFile = new JarFile(file, false)) {
+            Manifest manifest = jarFile.getManifest();
+            if (manifest == null) {
+                return null;
+            }
+            Attributes attributes = manifest.getMainAttributes();
+            String version = firstValue(attributes, Attributes.Name.IMPLEMENTATION_VERSION, new Attributes.Name("Bundle-Version"));
+            if (version.isEmpty() || version.toUpperCase(Locale.ROOT).contains(SNAPSHOT)) {
+                return null;
+            }
+            return firstValue(attributes, IMPLEMENTATION_VENDOR_ID, Attributes.Name.IMPLEMENTATION_VENDOR) + '|'
+                    + firstValue(attributes, Attributes.Name.IMPLEMENTATION_TITLE, new Attributes.Name("Bundle-SymbolicName")) + '|'
+                    + version;
+        } catch (IOException | RuntimeException e) {
+            // not a readable archive, its coordinates are unknown
+            return null;
+        }
+    }
+
+    private static String firstValue(Attributes attributes, Attributes.Name... names) {
+        for (Attributes.Name name : names) {
+            String value = attributes.getValue(name);
+            if (value != null) {
+                return value.trim();
+            }
+        }
+        return "";
+    }
+
+    /* --- Getters / Setters --- */
+
+    /**
+     * @param verificationRate percentage, from 0 to 100, of matches to verify by hashing the artifact anyway.
+     */
+    public void setVerificationRate(int verificationRate) {
+        this.verificationRate = verificationRate;
+    }
+
+    /* --- Nested classes --- */
+
+    private static class Entry {
+
+        private String key;
+
+        /**
+         * Dependency info serialized as JSON, without its file name and location.
+         */
+        private String dependency;
+    }
+}
@@ -0,0 +1,655 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.Path;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+import org.whitesource.agent.api.model.ChecksumType;
+import org.whitesource.agent.api.model.Coordinates;
+import org.whitesource.agent.api.model.DependencyInfo;
+import org.whitesource.agent.hash.ChecksumUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists the files of a module and creates their dependency infos.
+ *
+ * @see WhitesourceTask
+ */
+public class ModuleScanner {
+
+    /* --- Members --- */
+
+    /**
+     * Task to log through.
+     */
+    private final Task task;
+
+    private final ChecksumEngine checksumEngine;
+
+    /**
+     * Number of threads used to calculate dependency checksums.
+     */
+    private final int threads;
+
+    private ChecksumCache checksumCache;
+
+    private ContentIndex contentIndex;
+
+    private TaskMetrics metrics;
+
+    private ArchiveScanner archiveScanner;
+
+    private SharedFingerprintStore sharedStore;
+
+    /**
+     * Settings fingerprints are shared with other tasks under.
+     */
+    private String sharedStoreVariant;
+
+    private IoLimiter ioLimiter;
+
+    private KnownArtifactIndex artifactIndex;
+
+    private JavaScriptHasher javaScriptHasher;
+
+    /**
+     * {@link System#nanoTime()} after which files are no longer fingerprinted, null for no time budget.
+     */
+    private Long hashDeadline;
+
+    private final Collection<File> skippedFiles;
+
+    private ScanDiagnostics diagnostics;
+
+    /**
+     * Name of the module being scanned, for diagnostics.
+     */
+    private volatile String diagnosticsModule;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param task           task to log through.
+     * @param checksumEngine engine calculating SHA-1 and MD5 checksums.
+     * @param threads        number of threads used to calculate dependency checksums.
+     */
+    public ModuleScanner(Task task, ChecksumEngine checksumEngine, int threads) {
+        this.task = task;
+        this.checksumEngine = checksumEngine;
+        this.threads = threads;
+        this.contentIndex = new ContentIndex();
+        this.metrics = new TaskMetrics();
+        this.javaScriptHasher = new JavaScriptHasher(0, 0);
+        this.skippedFiles = new ConcurrentLinkedQueue<File>();
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Lists the files of the given module and fingerprints them.
+     *
+     * @param module module to scan.
+     * @return project info holding a dependency per module file.
+     */
+    public AgentProjectInfo scan(Module module) {
+        AgentProjectInfo projectInfo = createProjectInfo(module);
+        if (StringUtils.isBlank(module.getName())) {
+            task.log("Processing module with token " + module.getToken());
+        } else {
+            task.log("Processing " + module.getName());
+        }
+
+        String moduleName = StringUtils.isBlank(module.getName()) ? module.getToken() : module.getName();
+        diagnosticsModule = moduleName;
+
+        long start = metrics.start();
+        Set<File> files = listFiles(module);
+        long listNanos = System.nanoTime() - start;
+        metrics.stop(TaskMetrics.LIST_PATHS, start);
+
+        start = metrics.start();
+        int skipped = skippedFiles.size();
+        Collection<DependencyInfo> dependencies = projectInfo.getDependencies();
+        dependencies.addAll(createDependencyInfos(files));
+        long hashNanos = System.nanoTime() - start;
+        metrics.stop(TaskMetrics.HASH, start);
+
+        task.log("Found " + dependencies.size() + " direct dependencies");
+        skipped = skippedFiles.size() - skipped;
+        if (skipped > 0) {
+            task.log("Time budget exceeded, skipped " + skipped + " files", Project.MSG_WARN);
+        }
+        if (diagnostics != null) {
+            diagnostics.module(moduleName, files.size(), dependencies.size(), skipped, listNanos, hashNanos);
+        }
+        return projectInfo;
+    }
+
+    /**
+     * @return a project info identifying the given module by name or token, without dependencies.
+     */
+    public AgentProjectInfo createProjectInfo(Module module) {
+        AgentProjectInfo projectInfo = new AgentProjectInfo();
+        if (StringUtils.isBlank(module.getName())) {
+            projectInfo.setProjectToken(module.getToken());
+        } else {
+            projectInfo.setCoordinates(new Coordinates(null, module.getName(), null));
+        }
+        return projectInfo;
+    }
+
+    /**
+     * @return all files located in the module paths, sorted by path.
+     */
+    public Set<File> listFiles(Module module) {
+        Set<File> files = new TreeSet<File>(); // We're using a sorted set in order to avoid duplicate files and keep a stable order.
+        for (Path path : module.getPaths()) {
+            for (String includedFile : path.list()) {
+                File file = new File(includedFile);
+                if (!file.isDirectory()) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Creates dependency infos for the given files, using a pool of {@link #threads} workers fed the largest files first,
+     * so that no large file is left to be fingerprinted alone at the end.
+     * Results keep the iteration order of the given files, failed files and files skipped for exceeding the time budget
+     * are left out.
+     */
+    public List<DependencyInfo> createDependencyInfos(Collection<File> files) {
+        List<DependencyInfo> dependencies = new ArrayList<DependencyInfo>();
+        if (threads == 1 || files.size() < 2) {
+            for (File file : files) {
+                addIfNotNull(dependencies, createDependencyInfoInBudget(file));
+            }
+            return dependencies;
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threads, files.size()), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "whitesource-checksum-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            Map<File, Future<DependencyInfo>> futures = new HashMap<File, Future<DependencyInfo>>(files.size() * 2);
+            for (final File file : largestFirst(files)) {
+                futures.put(file, executorService.submit(new Callable<DependencyInfo>() {
+                    @Override
+                    public DependencyInfo call() {
+                        return createDependencyInfoInBudget(file);
+                    }
+                }));
+            }
+            for (File file : files) {
+                addIfNotNull(dependencies, futures.get(file).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException("Interrupted while calculating dependency checksums", e);
+        } catch (ExecutionException e) {
+            throw new BuildException("Failed to calculate dependency checksums", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+        return dependencies;
+    }
+
+    private static List<File> largestFirst(Collection<File> files) {
+        final Map<File, Long> lengths = new HashMap<File, Long>(files.size() * 2);
+        for (File file : files) {
+            lengths.put(file, file.length());
+        }
+        List<File> sorted = new ArrayList<File>(lengths.keySet());
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(lengths.get(file2), lengths.get(file1));
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * @return the dependency info of the given file, null if the time budget is exceeded.
+     */
+    private DependencyInfo createDependencyInfoInBudget(File file) {
+        if (hashDeadline != null && System.nanoTime() - hashDeadline > 0) {
+            skippedFiles.add(file);
+            metrics.addSkippedFile();
+            if (diagnostics != null) {
+                diagnostics.dependency(diagnosticsModule, file, ScanDiagnostics.Source.SKIPPED, 0, null);
+            }
+            return null;
+        }
+        if (diagnostics == null) {
+            return createDependencyInfo(file);
+        }
+
+        // the source stays unset if the same path was already fingerprinted
+        diagnostics.setSource(ScanDiagnostics.Source.SAME_PATH);
+        long start = System.nanoTime();
+        DependencyInfo dependency = createDependencyInfo(file);
+        long nanos = System.nanoTime() - start;
+        ScanDiagnostics.Source source = diagnostics.resetSource(null);
+        diagnostics.dependency(diagnosticsModule, file, dependency == null ? ScanDiagnostics.Source.FAILED : source, nanos, dependency);
+        return dependency;
+    }
+
+    private static void addIfNotNull(List<DependencyInfo> dependencies, DependencyInfo dependency) {
+        if (dependency != null) {
+            dependencies.add(dependency);
+        }
+    }
+
+    /**
+     * Returns the dependency info of the given file, fingerprinting it only if no other module or path
+     * already referred to the same file.
+     */
+    public DependencyInfo createDependencyInfo(final File dependencyFile) {
+        try {
+            return contentIndex.get(dependencyFile, new Callable<DependencyInfo>() {
+                @Override
+                public DependencyInfo call() throws IOException {
+                    // read before the file content, so a file modified while hashed is not cached as unchanged
+                    BasicFileAttributes attributes = checksumCache == null ? null : readAttributes(dependencyFile);
+                    DependencyInfo cached = getCached(dependencyFile, attributes);
+                    if (cached != null) {
+                        return cached;
+                    }
+                    return sharedStore == null ? fingerprint(dependencyFile, attributes) : fingerprintShared(dependencyFile, attributes);
+                }
+            });
+        } catch (IOException e) {
+            task.log("Failed to create dependency " + dependencyFile.getName() + " to dependency list: " + e.getMessage(), Project.MSG_ERR);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the fingerprint of the given file from the store shared with other tasks, fingerprinting it if needed.
+     */
+    private DependencyInfo fingerprintShared(final File dependencyFile, final BasicFileAttributes attributes) throws IOException {
+        final AtomicBoolean fingerprinted = new AtomicBoolean();
+        DependencyInfo dependency = sharedStore.get(dependencyFile, sharedStoreVariant, new Callable<DependencyInfo>() {
+            @Override
+            public DependencyInfo call() {
+                fingerprinted.set(true);
+                return fingerprint(dependencyFile, attributes);
+            }
+        });
+        if (dependency != null && !fingerprinted.get()) {
+            // fingerprinted by another task
+            diagnose(ScanDiagnostics.Source.SHARED_STORE);
+            cacheDependencyInfo(dependencyFile, attributes, dependency);
+            contentIndex.addCandidate(dependencyFile, dependency);
+        }
+        return dependency;
+    }
+
+    /**
+     * @return the fingerprint of the given file held by the checksum cache, null if it is not cached or changed since.
+     */
+    private DependencyInfo getCached(File dependencyFile, BasicFileAttributes attributes) {
+        if (attributes == null) {
+            return null;
+        }
+        try {
+            DependencyInfo cached = checksumCache.get(dependencyFile, attributes);
+            if (cached != null) {
+                diagnose(ScanDiagnostics.Source.CHECKSUM_CACHE);
+                if (archiveScanner != null && cached.getChildren().isEmpty() && archiveScanner.accepts(dependencyFile)) {
+                    // cached without deep scan, or without embedded dependencies
+                    if (!acquireRead(dependencyFile)) {
+                        return null;
+                    }
+                    try {
+                        addEmbeddedDependencies(cached, dependencyFile);
+                    } finally {
+                        releaseRead(dependencyFile);
+                    }
+                    cacheDependencyInfo(dependencyFile, attributes, cached);
+                }
+                contentIndex.addCandidate(dependencyFile, cached);
+            }
+            return cached;
+        } catch (IOException e) {
+            task.log("Failed to read cached checksums of " + dependencyFile.getPath() + ": " + e.getMessage(), Project.MSG_VERBOSE);
+            return null;
+        }
+    }
+
+    private DependencyInfo fingerprint(File dependencyFile, BasicFileAttributes attributes) {
+        // before taking the read slot of the file, as each file compared is read under a slot of its own
+        boolean mayHaveCopy = mayHaveCopy(dependencyFile);
+        if (!acquireRead(dependencyFile)) {
+            return null;
+        }
+        try {
+            if (artifactIndex != null && artifactIndex.accepts(dependencyFile)) {
+                return fingerprintArtifact(dependencyFile, attributes, mayHaveCopy);
+            }
+            return calculate(dependencyFile, attributes, mayHaveCopy);
+        } finally {
+            releaseRead(dependencyFile);
+        }
+    }
+
+    /**
+     * Gets the fingerprint of the given artifact from the known artifact index, calculating and indexing it
+     * if the artifact is unknown or the match is to be verified.
+     */
+    private DependencyInfo fingerprintArtifact(File dependencyFile, BasicFileAttributes attributes, boolean mayHaveCopy) {
+        String key;
+        try {
+            key = artifactIndex.key(dependencyFile);
+        } catch (IOException e) {
+            task.log("Failed to calculate artifact index key of " + dependencyFile.getPath() + ": " + e.getMessage(), Project.MSG_VERBOSE);
+            return calculate(dependencyFile, attributes, mayHaveCopy);
+        }
+        if (key == null) {
+            // not a release artifact
+            return calculate(dependencyFile, attributes, mayHaveCopy);
+        }
+
+        DependencyInfo indexed = artifactIndex.get(key, dependencyFile);
+        if (indexed != null && !artifactIndex.shouldVerify()) {
+            diagnose(ScanDiagnostics.Source.ARTIFACT_INDEX);
+            if (archiveScanner != null && archiveScanner.accepts(dependencyFile)) {
+                addEmbeddedDependencies(indexed, dependencyFile);
+            }
+            cacheDependencyInfo(dependencyFile, attributes, indexed);
+            contentIndex.addCandidate(dependencyFile, indexed);
+            return indexed;
+        }
+
+        DependencyInfo dependency = calculate(dependencyFile, attributes, mayHaveCopy);
+        if (dependency != null) {
+            if (indexed == null) {
+                artifactIndex.put(key, dependency);
+            } else if (!artifactIndex.verify(key, dependency)) {
+                task.log("Known artifact index held a wrong fingerprint for " + dependencyFile.getPath() + ", replaced", Project.MSG_WARN);
+            }
+        }
+        return dependency;
+    }
+
+    /**
+     * Calculates the checksums of the given file, reading it.
+     *
+     * @param attributes  attributes of the file read before hashing it, null if the checksums are not to be cached.
+     * @param mayHaveCopy whether another file may have the same content, see {@link #mayHaveCopy(File)}.
+     */
+    private DependencyInfo calculate(File dependencyFile, BasicFileAttributes attributes, boolean mayHaveCopy) {
+        diagnose(ScanDiagnostics.Source.CALCULATED);
+        String fileName = dependencyFile.getName();
+        DependencyInfo dependency = new DependencyInfo();
+        Future<Map<ChecksumType, String>> javaScriptChecksums = null;
+        try {
+            dependency.setFilename(fileName);
+            dependency.setArtifactId(fileName);
+            dependency.setSystemPath(dependencyFile.getAbsolutePath());
+
+            // JavaScript checksums are calculated apart, concurrently if the hasher has threads of its own
+            if (JavaScriptHasher.isJavaScript(fileName)) {
+                javaScriptChecksums = javaScriptHasher.submit(dependencyFile);
+            }
+
+            // Calculate sha1 and md5 in a single read
+            Map<ChecksumType, String> checksums = checksumEngine.calculate(dependencyFile);
+            metrics.addHashedFile(dependencyFile.length());
+            dependency.setSha1(checksums.get(ChecksumType.SHA1));
+            dependency.addChecksum(ChecksumType.MD5, checksums.get(ChecksumType.MD5));
+
+            // reuse the remaining checksums of an identical file, looked for only if another file has the same
+            // length and leading bytes
+            if (mayHaveCopy) {
+                DependencyInfo copy = contentIndex.findCopy(dependencyFile, dependency.getSha1());
+                if (copy != null) {
+                    task.log("Reusing checksums of identical file for " + dependencyFile.getPath(), Project.MSG_VERBOSE);
+                    diagnose(ScanDiagnostics.Source.IDENTICAL_FILE);
+                    if (javaScriptChecksums != null) {
+                        javaScriptChecksums.cancel(true);
+                    }
+                    cacheDependencyInfo(dependencyFile, attributes, copy);
+                    return copy;
+                }
+            }
+
+            // handle JavaScript files
+            if (javaScriptChecksums != null) {
+                addJavaScriptChecksums(dependency, dependencyFile, javaScriptChecksums);
+            }
+
+            // Calculate super hash
+            ChecksumUtils.calculateSuperHash(dependency, dependencyFile);
+
+            // fingerprint the dependencies bundled in archives
+            if (archiveScanner != null && archiveScanner.accepts(dependencyFile)) {
+                addEmbeddedDependencies(dependency, dependencyFile);
+            }
+
+            cacheDependencyInfo(dependencyFile, attributes, dependency);
+            contentIndex.addCandidate(dependencyFile, dependency);
+        } catch (IOException e) {
+            task.log("Failed to create dependency " + fileName + " to dependency list: " + e.getMessage(), Project.MSG_ERR);
+            if (javaScriptChecksums != null) {
+                javaScriptChecksums.cancel(true);
+            }
+            dependency = null;
+        }
+        return dependency;
+    }
+
+    /**
+     * @return true if another fingerprinted file has the same length and leading bytes as the given file, or if
+     * their leading bytes could not be compared.
+     */
+    private boolean mayHaveCopy(File dependencyFile) {
+        try {
+            return contentIndex.mayHaveCopy(dependencyFile, ioLimiter);
+        } catch (IOException e) {
+            // the checksums tell copies apart anyway
+            task.log("Failed to compare " + dependencyFile.getPath() + " with identical length files: " + e.getMessage(), Project.MSG_VERBOSE);
+            return true;
+        }
+    }
+
+    private void addJavaScriptChecksums(DependencyInfo dependency, File dependencyFile, Future<Map<ChecksumType, String>> javaScriptChecksums) {
+        try {
+            for (Map.Entry<ChecksumType, String> entry : javaScriptChecksums.get().entrySet()) {
+                dependency.addChecksum(entry.getKey(), entry.getValue());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            javaScriptChecksums.cancel(true);
+            task.log("Interrupted while calculating javaScript hash for file: " + dependencyFile.getPath(), Project.MSG_WARN);
+        } catch (ExecutionException e) {
+            task.log("Failed to calculate javaScript hash for file: " + dependencyFile.getPath() + ", error: " + e.getCause().getMessage(), Project.MSG_WARN);
+        }
+    }
+
+    private void diagnose(ScanDiagnostics.Source source) {
+        if (diagnostics != null) {
+            diagnostics.setSource(source);
+        }
+    }
+
+    /**
+     * Waits for a read slot of the shared I/O limiter, if any.
+     *
+     * @return false if interrupted while waiting.
+     */
+    private boolean acquireRead(File dependencyFile) {
+        if (ioLimiter != null) {
+            try {
+                ioLimiter.acquire(dependencyFile);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.log("Interrupted while waiting to read " + dependencyFile.getPath(), Project.MSG_ERR);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void releaseRead(File dependencyFile) {
+        if (ioLimiter != null) {
+            ioLimiter.release(dependencyFile);
+        }
+    }
+
+    private void addEmbeddedDependencies(DependencyInfo dependency, File archive) {
+        try {
+            List<DependencyInfo> embedded = archiveScanner.scan(archive);
+            dependency.getChildren().addAll(embedded);
+            if (!embedded.isEmpty()) {
+                task.log("Found " + embedded.size() + " embedded dependencies in " + archive.getPath(), Project.MSG_VERBOSE);
+            }
+        } catch (IOException e) {
+            task.log("Failed to scan embedded dependencies of " + archive.getPath() + ": " + e.getMessage(), Project.MSG_WARN);
+        }
+    }
+
+    /**
+     * @return the attributes the checksum cache validates entries of the file against, null if they can not be read.
+     */
+    private BasicFileAttributes readAttributes(File dependencyFile) {
+        try {
+            return ChecksumCache.readAttributes(dependencyFile);
+        } catch (IOException e) {
+            task.log("Failed to read attributes of " + dependencyFile.getPath() + ", checksums are not cached: " + e.getMessage(), Project.MSG_VERBOSE);
+            return null;
+        }
+    }
+
+    private void cacheDependencyInfo(File dependencyFile, BasicFileAttributes attributes, DependencyInfo dependency) {
+        if (attributes == null) {
+            return;
+        }
+        try {
+            checksumCache.put(dependencyFile, attributes, dependency);
+        } catch (IOException e) {
+            task.log("Failed to cache checksums of " + dependencyFile.getPath() + ": " + e.getMessage(), Project.MSG_VERBOSE);
+        }
+    }
+
+    /* --- Getters / Setters --- */
+
+    /**
+     * @param checksumCache cache of previously calculated checksums, null to always calculate them.
+     */
+    public void setChecksumCache(ChecksumCache checksumCache) {
+        this.checksumCache = checksumCache;
+    }
+
+    /**
+     * @param contentIndex index of the files fingerprinted so far, replace to release them.
+     */
+    public void setContentIndex(ContentIndex contentIndex) {
+        this.contentIndex = contentIndex;
+    }
+
+    /**
+     * @param archiveScanner scanner of the dependencies embedded in archives, null to fingerprint archives as a whole.
+     */
+    public void setArchiveScanner(ArchiveScanner archiveScanner) {
+        this.archiveScanner = archiveScanner;
+    }
+
+    /**
+     * @param sharedStore store of fingerprints shared with other tasks, null to only reuse fingerprints within this task.
+     * @param variant     settings fingerprints are created with, only fingerprints created with the same are shared.
+     */
+    public void setSharedStore(SharedFingerprintStore sharedStore, String variant) {
+        this.sharedStore = sharedStore;
+        this.sharedStoreVariant = variant;
+    }
+
+    /**
+     * @param ioLimiter limiter of the files read concurrently, null to read with all threads.
+     */
+    public void setIoLimiter(IoLimiter ioLimiter) {
+        this.ioLimiter = ioLimiter;
+    }
+
+    /**
+     * @param artifactIndex index of well known artifacts to skip hashing of, null to hash all artifacts.
+     */
+    public void setArtifactIndex(KnownArtifactIndex artifactIndex) {
+        this.artifactIndex = artifactIndex;
+    }
+
+    /**
+     * @param javaScriptHasher stage calculating the JavaScript specific checksums of JavaScript files.
+     */
+    public void setJavaScriptHasher(JavaScriptHasher javaScriptHasher) {
+        this.javaScriptHasher = javaScriptHasher;
+    }
+
+    /**
+     * Sets the time budget of fingerprinting, from now on. Files whose fingerprinting has not started once the budget
+     * is exceeded are skipped.
+     *
+     * @param budgetMillis time budget in milliseconds, zero for no time budget.
+     */
+    public void setTimeBudget(long budgetMillis) {
+        hashDeadline = budgetMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis) : null;
+    }
+
+    /**
+     * @return files skipped so far for exceeding the time budget.
+     */
+    public Collection<File> getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    /**
+     * @param diagnostics diagnostics to write a record per file and module to, null to disable diagnostics.
+     */
+    public void setDiagnostics(ScanDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * @param metrics metrics to record listing and hashing in.
+     */
+    public void setMetrics(TaskMetrics metrics) {
+        this.metrics = metrics;
+        javaScriptHasher.setMetrics(metrics);
+    }
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.stream.JsonWriter;
+import org.whitesource.agent.api.dispatch.CheckPolicyComplianceResult;
+import org.whitesource.agent.api.model.PolicyCheckResourceNode;
+import org.whitesource.agent.api.model.RequestPolicyInfo;
+import org.whitesource.agent.api.model.ResourceInfo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes the policy check result as an HTML report and compact JSON and CSV summaries, in a single pass over
+ * the result tree.
+ * <p>
+ * Each library is written as it is visited, through a fixed size buffer per format, so that the report does not
+ * hold a copy of the result in memory whatever the size of the inventory. Project summaries follow their libraries.
+ * <ul>
+ *     <li><code>html</code> - {@value #HTML_FILE}, a table of the libraries of each project, rejections highlighted</li>
+ *     <li><code>json</code> - {@value #JSON_FILE}, per project the number of libraries and the rejected ones</li>
+ *     <li><code>csv</code> - {@value #CSV_FILE}, a line per library with its project, policy and action</li>
+ * </ul>
+ */
+public class PolicyReportWriter {
+
+    /* --- Static members --- */
+
+    public static final String HTML_FILE = "policy-check.html";
+    public static final String JSON_FILE = "policy-check.json";
+    public static final String CSV_FILE = "policy-check.csv";
+
+    private static final String REJECT = "Reject";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /* --- Members --- */
+
+    private final Set<String> formats;
+
+    private Writer html;
+
+    private JsonWriter json;
+
+    private Writer csv;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param formats formats to write, among {@link Constants#STREAMED_REPORT_FORMATS}.
+     */
+    public PolicyReportWriter(Collection<String> formats) {
+        this.formats = new HashSet<String>(formats);
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Writes the report files into the given directory.
+     *
+     * @return the files written.
+     * @throws IOException in case a file can not be written.
+     */
+    public List<File> write(CheckPolicyComplianceResult result, File reportDir) throws IOException {
+        List<File> files = new ArrayList<File>();
+        try {
+            if (formats.contains("html")) {
+                html = open(new File(reportDir, HTML_FILE), files);
+            }
+            if (formats.contains("json")) {
+                json = new JsonWriter(open(new File(reportDir, JSON_FILE), files));
+            }
+            if (formats.contains("csv")) {
+                csv = open(new File(reportDir, CSV_FILE), files);
+            }
+
+            Totals totals = new Totals();
+            startReport(result.getOrganization());
+            writeProjects(result.getExistingProjects(), false, totals);
+            writeProjects(result.getNewProjects(), true, totals);
+            endReport(totals);
+        } finally {
+            close(html, json, csv);
+        }
+        return files;
+    }
+
+    /* --- Private methods --- */
+
+    private static Writer open(File file, List<File> files) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+        files.add(file);
+        return writer;
+    }
+
+    /**
+     * Closes all the given writers, flushing their buffers, then throws the first failure if any.
+     */
+    private static void close(Closeable... writers) throws IOException {
+        IOException failure = null;
+        for (Closeable writer : writers) {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void startReport(String organization) throws IOException {
+        if (html != null) {
+            html.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>White Source policy check</title>\n");
+            html.write("<style>body{font-family:sans-serif}table{border-collapse:collapse;margin-bottom:1em}"
+                    + "td,th{border:1px solid #ccc;padding:2px 8px;text-align:left}tr.reject td{background:#f8d7da}</style>\n");
+            html.write("</head>\n<body>\n<h1>White Source policy check</h1>\n<p>Organization: ");
+            html.write(escapeHtml(organization));
+            html.write("</p>\n");
+        }
+        if (json != null) {
+            json.beginObject();
+            json.name("organization").value(organization);
+            json.name("projects").beginArray();
+        }
+        if (csv != null) {
+            csv.write("project,library,policy,action\n");
+        }
+    }
+
+    private void writeProjects(Map<String, PolicyCheckResourceNode> projects, boolean newProjects, Totals totals) throws IOException {
+        if (projects == null) {
+            return;
+        }
+        for (Map.Entry<String, PolicyCheckResourceNode> project : projects.entrySet()) {
+            String name = project.getKey();
+            if (html != null) {
+                html.write("<h2>" + escapeHtml(name) + (newProjects ? " (new project)" : "") + "</h2>\n");
+                html.write("<table>\n<tr><th>Library</th><th>Policy</th><th>Action</th></tr>\n");
+            }
+            if (json != null) {
+                json.beginObject();
+                json.name("name").value(name);
+                json.name("newProject").value(newProjects);
+                json.name("rejections").beginArray();
+            }
+
+            Totals projectTotals = new Totals();
+            for (PolicyCheckResourceNode library : project.getValue().getChildren()) {
+                writeLibrary(name, library, 0, projectTotals);
+            }
+            totals.add(projectTotals);
+
+            if (html != null) {
+                html.write("</table>\n<p>" + projectTotals.libraries + " libraries, " + projectTotals.rejections + " rejected</p>\n");
+            }
+            if (json != null) {
+                json.endArray();
+                json.name("libraries").value(projectTotals.libraries);
+                json.endObject();
+            }
+            totals.projects++;
+        }
+    }
+
+    private void writeLibrary(String project, PolicyCheckResourceNode node, int depth, Totals totals) throws IOException {
+        ResourceInfo resource = node.getResource();
+        RequestPolicyInfo policy = node.getPolicy();
+        String library = resource == null ? "" : resource.getDisplayName();
+        String policyName = policy == null ? "" : policy.getDisplayName();
+        String action = policy == null ? "" : policy.getActionType();
+        boolean rejected = REJECT.equals(action);
+        totals.libraries++;
+        if (rejected) {
+            totals.rejections++;
+        }
+
+        if (html != null) {
+            html.write(rejected ? "<tr class=\"reject\">" : "<tr>");
+            html.write("<td style=\"padding-left:" + (8 + depth * 16) + "px\">" + escapeHtml(library) + "</td><td>"
+                    + escapeHtml(policyName) + "</td><td>" + escapeHtml(action) + "</td></tr>\n");
+        }
+        if (json != null && rejected) {
+            json.beginObject();
+            json.name("library").value(library);
+            json.name("policy").value(policyName);
+            json.endObject();
+        }
+        if (csv != null) {
+            csv.write(escapeCsv(project) + ',' + escapeCsv(library) + ',' + escapeCsv(policyName) + ',' + escapeCsv(action) + '\n');
+        }
+
+        for (PolicyCheckResourceNode child : node.getChildren()) {
+            writeLibrary(project, child, depth + 1, totals);
+        }
+    }
+
+    private void endReport(Totals totals) throws IOException {
+        if (html != null) {
+            html.write("<h2>Summary</h2>\n<p>" + totals.projects + " projects, " + totals.libraries + " libraries, "
+                    + totals.rejections + " rejected</p>\n</body>\n</html>\n");
+        }
+        if (json != null) {
+            json.endArray();
+            json.name("libraries").value(totals.libraries);
+            json.name("rejections").value(totals.rejections);
+            json.endObject();
+        }
+    }
+
+    private static String escapeHtml(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String escapeCsv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /* --- Nested classes --- */
+
+    private static class Totals {
+
+        private int projects;
+
+        private long libraries;
+
+        private long rejections;
+
+        private void add(Totals totals) {
+            libraries += totals.libraries;
+            rejections += totals.rejections;
+        }
+    }
+}
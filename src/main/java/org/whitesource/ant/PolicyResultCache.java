@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.whitesource.agent.api.dispatch.CheckPolicyComplianceResult;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Local cache of policy check results, so that checking an unchanged inventory again does not require
+ * a request to White Source.
+ * <p>
+ * Results are keyed by a digest of the api key, service url, product, product version, force check flag and
+ * the dependency set of every module, and expire after a time to live, as policies may change on the server in the meantime.
+ * The cache is stored as a gzip compressed file, one JSON entry per line between a version header and an entry
+ * count trailer. A file which fails the gzip checksum, the header or the trailer is ignored as a whole.
+ */
+public class PolicyResultCache {
+
+    /* --- Static members --- */
+
+    private static final String HEADER = "whitesource-policy-cache-v1";
+
+    private static final String TRAILER_PREFIX = "entries:";
+
+    /**
+     * Maximum number of results kept, the most recent ones.
+     */
+    private static final int MAX_ENTRIES = 8;
+
+    /* --- Members --- */
+
+    private final File cacheFile;
+
+    private final long ttlMillis;
+
+    private final Gson gson;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param cacheFile file the results are stored in.
+     * @param ttlMillis time after which a result is no longer used.
+     */
+    public PolicyResultCache(File cacheFile, long ttlMillis) {
+        this.cacheFile = cacheFile;
+        this.ttlMillis = ttlMillis;
+        this.gson = new Gson();
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * @param serviceUrl effective url of the service the policies are checked by.
+     * @return the key of a policy check request.
+     */
+    public static String key(String apiKey, String serviceUrl, String product, String productVersion,
+                             boolean forceCheckAllDependencies, Collection<AgentProjectInfo> projectInfos) {
+        List<String> modules = new ArrayList<String>();
+        for (AgentProjectInfo projectInfo : projectInfos) {
+            modules.add(InventoryManifest.moduleKey(projectInfo) + '|' + InventoryManifest.digest(projectInfo));
+        }
+        Collections.sort(modules);
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        List<String> parts = Arrays.asList(apiKey, serviceUrl, product, productVersion,
+                String.valueOf(forceCheckAllDependencies));
+        for (String part : parts) {
+            digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        for (String module : modules) {
+            digest.update(module.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return IoUtils.toHex(digest.digest());
+    }
+
+    /**
+     * @return the cached result of the given key, null if there is none or it expired.
+     * @throws IOException in case the file can not be read or is corrupted.
+     */
+    public CheckPolicyComplianceResult get(String key) throws IOException {
+        for (Entry entry : load()) {
+            if (entry.key.equals(key) && !isExpired(entry)) {
+                try {
+                    return gson.fromJson(entry.result, CheckPolicyComplianceResult.class);
+                } catch (JsonParseException e) {
+                    throw new IOException("Policy result cache is corrupted: " + e.getMessage(), e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores the result of the given key, dropping expired results, and replaces the cache file atomically.
+     *
+     * @throws IOException in case the file can not be written.
+     */
+    public void put(String key, CheckPolicyComplianceResult result) throws IOException {
+        List<Entry> toSave = new ArrayList<Entry>();
+        Entry newEntry = new Entry();
+        newEntry.key = key;
+        newEntry.created = System.currentTimeMillis();
+        newEntry.result = gson.toJson(result);
+        toSave.add(newEntry);
+
+        List<Entry> existing;
+        try {
+            existing = load();
+        } catch (IOException e) {
+            // overwrite a corrupted cache
+            existing = Collections.emptyList();
+        }
+        for (Entry entry : existing) {
+            if (toSave.size() < MAX_ENTRIES && !entry.key.equals(key) && !isExpired(entry)) {
+                toSave.add(entry);
+            }
+        }
+
+        File tempFile = IoUtils.createTempFileFor(cacheFile);
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(tempFile)), StandardCharsets.UTF_8))) {
+                writer.write(HEADER);
+                writer.write('\n');
+                for (Entry entry : toSave) {
+                    writer.write(gson.toJson(entry));
+                    writer.write('\n');
+                }
+                writer.write(TRAILER_PREFIX + toSave.size());
+                writer.write('\n');
+            }
+            IoUtils.moveAtomically(tempFile, cacheFile);
+        } finally {
+            IoUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /* --- Private methods --- */
+
+    /**
+     * @return the stored entries, most recent first.
+     */
+    private List<Entry> load() throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        if (!cacheFile.isFile()) {
+            return entries;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(cacheFile)), StandardCharsets.UTF_8))) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Unknown policy result cache format");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(TRAILER_PREFIX)) {
+                    int count = Integer.parseInt(line.substring(TRAILER_PREFIX.length()));
+                    if (count != entries.size() || reader.readLine() != null) {
+                        throw new IOException("Policy result cache entry count mismatch");
+                    }
+                    return entries;
+                }
+                Entry entry = gson.fromJson(line, Entry.class);
+                if (entry == null || entry.key == null || entry.result == null) {
+                    throw new IOException("Invalid policy result cache entry");
+                }
+                entries.add(entry);
+            }
+            throw new IOException("Policy result cache is truncated");
+        } catch (EOFException | ZipException e) {
+            throw new IOException("Policy result cache is corrupted", e);
+        } catch (JsonParseException | NumberFormatException e) {
+            throw new IOException("Policy result cache is corrupted: " + e.getMessage(), e);
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        long age = System.currentTimeMillis() - entry.created;
+        return age < 0 || age > ttlMillis;
+    }
+
+    /* --- Nested classes --- */
+
+    /**
+     * A cached result, serialized as a JSON line.
+     */
+    private static class Entry {
+
+        private String key;
+
+        private long created;
+
+        /**
+         * JSON of the check policy compliance result.
+         */
+        private String result;
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.http.client.HttpResponseException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.whitesource.agent.client.WssServiceException;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Retries failed White Source service calls with jittered exponential backoff, within an optional deadline.
+ * <p>
+ * Only failures caused by an {@link IOException}, such as refused or dropped connections and timeouts, are retried.
+ * Error responses, which both transports report as an {@link HttpResponseException}, are retried for server errors
+ * and throttling only, never for a rejected request such as a 400, 401 or 403. Both service calls are safe to repeat: a policy check has no side effect, and an update
+ * overrides the module inventories it holds. The n-th retry waits a random time between zero and the initial
+ * backoff times 2<sup>n</sup>, capped by the maximum backoff, so that builds failing together do not retry
+ * together.
+ * <p>
+ * When a deadline is set, each attempt runs on a separate thread so that a call stalled inside the service
+ * client can be abandoned once the deadline passes. The request of an abandoned call is aborted through its
+ * service, if given. A request the service already received may still be processed by it, so an update is
+ * delivered at least once rather than exactly once.
+ */
+public class RetryPolicy {
+
+    /* --- Static members --- */
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /* --- Members --- */
+
+    /**
+     * Task to log through.
+     */
+    private final Task task;
+
+    private final int maxRetries;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    /**
+     * {@link System#nanoTime()} after which no call is attempted nor awaited, {@link #NO_DEADLINE} for none.
+     */
+    private final long deadlineNanos;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param task                 task to log through.
+     * @param maxRetries           number of times a failed call is retried, zero to never retry.
+     * @param initialBackoffMillis maximum wait before the first retry.
+     * @param maxBackoffMillis     maximum wait before any retry.
+     * @param deadlineMillis       time left for all calls, from now, zero or less for no deadline.
+     */
+    public RetryPolicy(Task task, int maxRetries, long initialBackoffMillis, long maxBackoffMillis, long deadlineMillis) {
+        this.task = task;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.deadlineNanos = deadlineMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis) : NO_DEADLINE;
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Makes the given call, retrying it on failures caused by I/O errors.
+     *
+     * @param description call description, for logging.
+     * @param call        service call to make.
+     * @return the call result.
+     * @throws WssServiceException the last failure, or a deadline failure.
+     */
+    public <T> T call(String description, ServiceCall<T> call) throws WssServiceException {
+        return call(description, null, call);
+    }
+
+    /**
+     * Makes the given call, retrying it on failures caused by I/O errors. A call abandoned for the deadline is
+     * aborted through the given service.
+     *
+     * @param description call description, for logging.
+     * @param service     service the call sends its request through, null if it can not be aborted.
+     * @param call        service call to make.
+     * @return the call result.
+     * @throws WssServiceException the last failure, or a deadline failure.
+     */
+    public <T> T call(String description, InventoryService service, ServiceCall<T> call) throws WssServiceException {
+        for (int retry = 0; ; retry++) {
+            try {
+                return attempt(description, service, call);
+            } catch (WssServiceException e) {
+                if (retry >= maxRetries || !isRetryable(e)) {
+                    throw e;
+                }
+                long backoff = backoffMillis(retry);
+                if (TimeUnit.MILLISECONDS.toNanos(backoff) >= remainingNanos()) {
+                    throw new WssServiceException(description + " failed and the deadline leaves no time to retry: " + e.getMessage(), e);
+                }
+                task.log(description + " failed, retrying in " + backoff + " ms (" + (retry + 1) + "/" + maxRetries + "): "
+                        + e.getMessage(), Project.MSG_WARN);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new WssServiceException("Interrupted while waiting to retry " + description, ie);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return milliseconds left before the deadline, {@link Long#MAX_VALUE} if there is none.
+     */
+    public long getRemainingMillis() {
+        return deadlineNanos == NO_DEADLINE ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMillis(remainingNanos());
+    }
+
+    /**
+     * @return true if the failure is caused by an I/O error, a server error or throttling, and may not happen again.
+     */
+    public static boolean isRetryable(WssServiceException e) {
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpResponseException) {
+                int status = ((HttpResponseException) cause).getStatusCode();
+                return status >= HTTP_SERVER_ERROR || status == HTTP_TOO_MANY_REQUESTS;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* --- Private methods --- */
+
+    private <T> T attempt(String description, InventoryService service, final ServiceCall<T> call) throws WssServiceException {
+        if (deadlineNanos == NO_DEADLINE) {
+            return call.call();
+        }
+        long remaining = remainingNanos();
+        if (remaining <= 0) {
+            throw new WssServiceException(description + " not attempted, the deadline has passed");
+        }
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "whitesource-service-call");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final AtomicReference<Thread> caller = new AtomicReference<Thread>();
+        Future<T> future = executorService.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                caller.set(Thread.currentThread());
+                return call.call();
+            }
+        });
+        try {
+            return future.get(remaining, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // interrupted first, so that a request not started yet is aborted when it starts
+            future.cancel(true);
+            Thread thread = caller.get();
+            if (service != null && thread != null) {
+                service.abort(thread);
+            }
+            throw new WssServiceException(description + " abandoned, the deadline has passed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WssServiceException("Interrupted during " + description, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof WssServiceException) {
+                throw (WssServiceException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new WssServiceException(cause.getMessage(), cause);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private long backoffMillis(int retry) {
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(retry, 30));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private long remainingNanos() {
+        return deadlineNanos == NO_DEADLINE ? Long.MAX_VALUE : deadlineNanos - System.nanoTime();
+    }
+
+    /* --- Nested classes --- */
+
+    /**
+     * White Source service call.
+     */
+    public interface ServiceCall<T> {
+
+        T call() throws WssServiceException;
+    }
+}
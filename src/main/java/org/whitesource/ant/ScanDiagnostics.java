@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.stream.JsonWriter;
+import org.whitesource.agent.api.model.DependencyInfo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a JSON record per fingerprinted file and per scanned module to a JSON lines file, to diagnose slow or
+ * unexpected scans.
+ * <p>
+ * File records hold the module, path, size, SHA-1, the time spent fingerprinting the file and where its fingerprint
+ * came from, e.g. calculated or found in the checksum cache. Module records hold the number of files, dependencies
+ * and skipped files, and the listing and hashing times.
+ * <p>
+ * Diagnostics are disabled unless a file is set: the scanner then holds no instance, and neither measures nor
+ * allocates anything per file.
+ */
+public class ScanDiagnostics implements Closeable {
+
+    /* --- Static members --- */
+
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    /**
+     * Where the fingerprint of a file came from.
+     */
+    public enum Source {
+
+        CALCULATED("calculated"),
+        CHECKSUM_CACHE("checksum-cache"),
+        ARTIFACT_INDEX("artifact-index"),
+        SHARED_STORE("shared-store"),
+        IDENTICAL_FILE("identical-file"),
+        SAME_PATH("same-path"),
+        SKIPPED("skipped"),
+        FAILED("failed");
+
+        private final String name;
+
+        Source(String name) {
+            this.name = name;
+        }
+    }
+
+    /* --- Members --- */
+
+    private final File file;
+
+    /**
+     * Source of the fingerprint of the file being fingerprinted by the current thread.
+     */
+    private final ThreadLocal<Source> sources = new ThreadLocal<Source>();
+
+    private Writer writer;
+
+    private JsonWriter json;
+
+    private IOException failure;
+
+    /* --- Constructors --- */
+
+    public ScanDiagnostics(File file) {
+        this.file = file;
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Creates the diagnostics file, replacing any previous one.
+     *
+     * @throws IOException in case the file can not be created.
+     */
+    public void open() throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        json = new JsonWriter(writer);
+        // a top level value per line
+        json.setLenient(true);
+    }
+
+    /**
+     * Sets the source of the fingerprint of the file being fingerprinted by the current thread.
+     */
+    public void setSource(Source source) {
+        sources.set(source);
+    }
+
+    /**
+     * @return the source set by the current thread, which is reset to the given one.
+     */
+    public Source resetSource(Source source) {
+        Source current = sources.get();
+        sources.set(source);
+        return current;
+    }
+
+    /**
+     * Writes the record of a file.
+     *
+     * @param dependency dependency info of the file, null if skipped or failed.
+     */
+    public synchronized void dependency(String module, File dependencyFile, Source source, long nanos, DependencyInfo dependency) {
+        if (writer == null || failure != null) {
+            return;
+        }
+        try {
+            json.beginObject();
+            json.name("type").value("dependency");
+            json.name("module").value(module);
+            json.name("path").value(dependencyFile.getPath());
+            json.name("size").value(dependencyFile.length());
+            json.name("sha1").value(dependency == null ? null : dependency.getSha1());
+            json.name("source").value(source.name);
+            json.name("micros").value(nanos / NANOS_PER_MICRO);
+            json.name("thread").value(Thread.currentThread().getName());
+            json.endObject();
+            writer.write('\n');
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Writes the record of a module, once its files are fingerprinted.
+     */
+    public synchronized void module(String module, int files, int dependencies, int skipped, long listNanos, long hashNanos) {
+        if (writer == null || failure != null) {
+            return;
+        }
+        try {
+            json.beginObject();
+            json.name("type").value("module");
+            json.name("module").value(module);
+            json.name("files").value(files);
+            json.name("dependencies").value(dependencies);
+            json.name("skipped").value(skipped);
+            json.name("listMillis").value(TimeUnit.NANOSECONDS.toMillis(listNanos));
+            json.name("hashMillis").value(TimeUnit.NANOSECONDS.toMillis(hashNanos));
+            json.endObject();
+            writer.write('\n');
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Closes the diagnostics file.
+     *
+     * @throws IOException in case a record could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } finally {
+            writer = null;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
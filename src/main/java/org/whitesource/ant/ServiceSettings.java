@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.Task;
+import org.whitesource.agent.client.ClientConstants;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service attributes shared by the White Source tasks: transport, timeouts, retries and deadline.
+ * <p>
+ * Creates the service the requests of a task are sent through, and the retry policy they are sent with.
+ */
+public class ServiceSettings {
+
+    /* --- Members --- */
+
+    /**
+     * How requests are sent to White Source, either "default" or "streaming" to serialize and compress
+     * the inventory while it is sent.
+     */
+    private String transport;
+
+    /**
+     * Seconds to wait for a connection to White Source, unset to use the transport default.
+     */
+    private Integer connectTimeout;
+
+    /**
+     * Seconds to wait for White Source to respond, unset to use the transport default.
+     */
+    private Integer readTimeout;
+
+    /**
+     * Number of times a request to White Source failing with a network or server error is retried.
+     */
+    private int retries;
+
+    /**
+     * Seconds after the task started beyond which no request to White Source is made or awaited, zero for no deadline.
+     * A request in progress at the deadline is aborted, but the service may already have received it: an update
+     * reported as failed for the deadline may still be applied.
+     */
+    private long deadline;
+
+    /* --- Constructors --- */
+
+    public ServiceSettings() {
+        transport = Constants.TRANSPORT_DEFAULT;
+        retries = 0;
+        deadline = 0;
+    }
+
+    /* --- Static methods --- */
+
+    /**
+     * Resolves the service url as the agent's <code>WhitesourceService</code> does: a blank url falls back to
+     * the <code>wss.url</code> system property, then to the SaaS service.
+     *
+     * @return the url requests are actually sent to.
+     */
+    public static String resolveServiceUrl(String serviceUrl) {
+        if (StringUtils.isBlank(serviceUrl)) {
+            return System.getProperty(ClientConstants.SERVICE_URL_KEYWORD, ClientConstants.DEFAULT_SERVICE_URL);
+        }
+        return serviceUrl;
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Validates the settings, replacing invalid values by their defaults.
+     *
+     * @param serviceUrl White Source service url, blank for the default service.
+     * @return the problems found, empty if the settings are valid.
+     */
+    public List<String> validate(String serviceUrl) {
+        serviceUrl = resolveServiceUrl(serviceUrl);
+        List<String> errors = new ArrayList<String>();
+        if (!Constants.TRANSPORT_DEFAULT.equals(transport) && !Constants.TRANSPORT_STREAMING.equals(transport)) {
+            errors.add("Transport must be either " + Constants.TRANSPORT_DEFAULT + " or " + Constants.TRANSPORT_STREAMING);
+            transport = Constants.TRANSPORT_DEFAULT;
+        }
+        if (Constants.TRANSPORT_STREAMING.equals(transport)) {
+            try {
+                new URL(serviceUrl);
+            } catch (MalformedURLException e) {
+                errors.add("Invalid service url " + serviceUrl + ": " + e.getMessage());
+                transport = Constants.TRANSPORT_DEFAULT;
+            }
+        }
+        if ((connectTimeout != null && connectTimeout < 0) || (readTimeout != null && readTimeout < 0) || retries < 0 || deadline < 0) {
+            errors.add("Timeouts, retries and deadline can not be negative");
+            connectTimeout = null;
+            readTimeout = null;
+            retries = 0;
+            deadline = 0;
+        }
+        return errors;
+    }
+
+    /**
+     * Creates the service to send requests through, see {@link #validate(String)}.
+     *
+     * @param serviceUrl White Source service url, blank for the default service.
+     * @param metrics    metrics to count request body sizes in, may be null.
+     */
+    public InventoryService newService(String serviceUrl, TaskMetrics metrics) {
+        serviceUrl = resolveServiceUrl(serviceUrl);
+        if (Constants.TRANSPORT_STREAMING.equals(transport)) {
+            StreamingWhitesourceService streamingService;
+            try {
+                streamingService = new StreamingWhitesourceService(
+                        Constants.AGENT_TYPE, Constants.AGENT_VERSION, Constants.PLUGIN_VERSION, serviceUrl);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Invalid service url " + serviceUrl, e);
+            }
+            streamingService.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(
+                    connectTimeout == null ? Constants.DEFAULT_CONNECT_TIMEOUT_SECONDS : connectTimeout));
+            streamingService.setReadTimeout((int) TimeUnit.SECONDS.toMillis(
+                    readTimeout == null ? Constants.DEFAULT_READ_TIMEOUT_SECONDS : readTimeout));
+            if (metrics != null) {
+                streamingService.setMetrics(metrics);
+            }
+            return streamingService;
+        }
+
+        // unset timeouts are left to the agent client
+        AgentInventoryService agentService = new AgentInventoryService(Constants.AGENT_TYPE, Constants.AGENT_VERSION,
+                Constants.PLUGIN_VERSION, serviceUrl,
+                connectTimeout == null ? 0 : (int) TimeUnit.SECONDS.toMillis(connectTimeout),
+                readTimeout == null ? 0 : (int) TimeUnit.SECONDS.toMillis(readTimeout));
+        if (metrics != null) {
+            agentService.setMetrics(metrics);
+        }
+        return agentService;
+    }
+
+    /**
+     * @param task task to log retries through.
+     * @return the retry policy of the requests, whose deadline runs from now.
+     */
+    public RetryPolicy newRetryPolicy(Task task) {
+        return new RetryPolicy(task, retries, Constants.DEFAULT_RETRY_BACKOFF_MILLIS, Constants.MAX_RETRY_BACKOFF_MILLIS,
+                TimeUnit.SECONDS.toMillis(deadline));
+    }
+
+    /* --- Getters / Setters --- */
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.Gson;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+import org.whitesource.agent.api.model.DependencyInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * JVM wide store of file fingerprints, shared by the White Source tasks of a build so that tasks running under
+ * ant's <code>parallel</code>, or one after the other, fingerprint a file referenced by several of them only once.
+ * <p>
+ * Fingerprints are keyed by canonical path and by the settings they were created with, and are only used while the
+ * file keeps its length and modification time. A task asking for a file another task is fingerprinting waits for
+ * that fingerprint and gets a copy of it. The least recently used fingerprints are dropped beyond a maximum number
+ * of files, and all of them once the build of the tasks using the store finishes.
+ */
+public final class SharedFingerprintStore {
+
+    /* --- Static members --- */
+
+    private static final SharedFingerprintStore INSTANCE = new SharedFingerprintStore(Constants.DEFAULT_CHECKSUM_CACHE_SIZE);
+
+    private static final String PROJECT_REFERENCE = "whitesource.sharedFingerprintStore";
+
+    /* --- Members --- */
+
+    private final Map<String, StoredFingerprint> entries;
+
+    private final Gson gson;
+
+    /* --- Constructors --- */
+
+    private SharedFingerprintStore(final int maxEntries) {
+        entries = new LinkedHashMap<String, StoredFingerprint>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredFingerprint> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        gson = new Gson();
+    }
+
+    /* --- Static methods --- */
+
+    public static SharedFingerprintStore getInstance() {
+        return INSTANCE;
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * Returns the fingerprint of the given file, creating it with the given factory unless a valid one is stored
+     * or being created. Failed fingerprints are not stored.
+     *
+     * @param file    dependency file.
+     * @param variant settings the fingerprint is created with, fingerprints created with other settings are not used.
+     * @param factory creates the dependency info of the file, may return null on failure.
+     * @return dependency info of the file, or null if it could not be created.
+     * @throws IOException in case the canonical path of the file can not be resolved.
+     */
+    public DependencyInfo get(File file, String variant, Callable<DependencyInfo> factory) throws IOException {
+        String key = variant + '|' + file.getCanonicalPath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        FutureTask<DependencyInfo> task = null;
+        StoredFingerprint entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null || entry.length != length || entry.lastModified != lastModified) {
+                task = new FutureTask<DependencyInfo>(factory);
+                entry = new StoredFingerprint(length, lastModified, task);
+                entries.put(key, entry);
+            }
+        }
+
+        if (task != null) {
+            task.run();
+        }
+        DependencyInfo dependency = await(entry.fingerprint, file);
+        if (dependency == null) {
+            synchronized (entries) {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                }
+            }
+            return null;
+        }
+        return task != null ? dependency : copy(dependency, file);
+    }
+
+    /**
+     * Drops the stored fingerprints once the build of the given project finishes, so that they neither outlive
+     * the build in a long running JVM nor are used by a later build.
+     */
+    public void clearOnBuildFinished(Project project) {
+        synchronized (project) {
+            if (project.getReference(PROJECT_REFERENCE) != null) {
+                return;
+            }
+            project.addReference(PROJECT_REFERENCE, this);
+        }
+        project.addBuildListener(new BuildListener() {
+            @Override
+            public void buildFinished(BuildEvent event) {
+                clear();
+            }
+
+            @Override
+            public void buildStarted(BuildEvent event) {
+            }
+
+            @Override
+            public void targetStarted(BuildEvent event) {
+            }
+
+            @Override
+            public void targetFinished(BuildEvent event) {
+            }
+
+            @Override
+            public void taskStarted(BuildEvent event) {
+            }
+
+            @Override
+            public void taskFinished(BuildEvent event) {
+            }
+
+            @Override
+            public void messageLogged(BuildEvent event) {
+            }
+        });
+    }
+
+    /**
+     * @return number of stored fingerprints.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Drops all stored fingerprints.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private static DependencyInfo await(Future<DependencyInfo> fingerprint, File file) throws IOException {
+        try {
+            return fingerprint.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + file, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            return null;
+        }
+    }
+
+    private DependencyInfo copy(DependencyInfo dependency, File file) {
+        DependencyInfo copy = gson.fromJson(gson.toJson(dependency), DependencyInfo.class);
+        copy.setFilename(file.getName());
+        copy.setArtifactId(file.getName());
+        copy.setSystemPath(file.getAbsolutePath());
+        return copy;
+    }
+
+    /* --- Nested classes --- */
+
+    private static class StoredFingerprint {
+
+        private final long length;
+
+        private final long lastModified;
+
+        private final Future<DependencyInfo> fingerprint;
+
+        private StoredFingerprint(long length, long lastModified, Future<DependencyInfo> fingerprint) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import org.apache.http.client.HttpResponseException;
+import org.whitesource.agent.api.dispatch.CheckPolicyComplianceResult;
+import org.whitesource.agent.api.dispatch.UpdateInventoryResult;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+import org.whitesource.agent.client.WssServiceException;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * White Source service sending update and policy check requests as a stream.
+ * <p>
+ * The request is the same form the agent client posts, but the inventory is serialized one module at a time
+ * through gzip, base64 and form encoding straight into a chunked HTTP request body. Neither the JSON document
+ * nor its compressed form is ever held in memory, so the transient heap of a request no longer grows with
+ * the size of the inventory.
+ * <p>
+ * Responses, including error responses, are read to their end so that the connection is kept alive and reused
+ * by the following requests. The bytes written to each request body are added to the task metrics. Error responses
+ * fail with an {@link HttpResponseException} cause, as with the agent client, which a {@link RetryPolicy} classifies
+ * by status. Connections are kept by the JDK, the service itself holds
+ * no HTTP client.
+ */
+public class StreamingWhitesourceService implements InventoryService {
+
+    /* --- Static members --- */
+
+    private static final String UPDATE_REQUEST = "UPDATE";
+
+    private static final String CHECK_POLICY_COMPLIANCE_REQUEST = "CHECK_POLICY_COMPLIANCE";
+
+    private static final String UPDATE_TYPE = "OVERRIDE";
+
+    private static final int STATUS_SUCCESS = 1;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /* --- Members --- */
+
+    private final String agent;
+
+    private final String agentVersion;
+
+    private final String pluginVersion;
+
+    private final URL serviceUrl;
+
+    private final Gson gson;
+
+    private int connectTimeoutMillis;
+
+    private int readTimeoutMillis;
+
+    private TaskMetrics metrics;
+
+    /**
+     * Connection of the request each thread is sending, so that it can be aborted.
+     */
+    private final ConcurrentMap<Thread, HttpURLConnection> connections;
+
+    /* --- Constructors --- */
+
+    /**
+     * Constructor
+     *
+     * @param serviceUrl service url, see {@link ServiceSettings#resolveServiceUrl(String)}.
+     */
+    public StreamingWhitesourceService(String agent, String agentVersion, String pluginVersion, String serviceUrl) throws MalformedURLException {
+        this.agent = agent;
+        this.agentVersion = agentVersion;
+        this.pluginVersion = pluginVersion;
+        this.serviceUrl = new URL(serviceUrl);
+        this.gson = new Gson();
+        this.metrics = new TaskMetrics();
+        this.connections = new ConcurrentHashMap<Thread, HttpURLConnection>();
+    }
+
+    /* --- Overridden InventoryService methods --- */
+
+    @Override
+    public UpdateInventoryResult update(String orgToken, String product, String productVersion,
+                                        Collection<AgentProjectInfo> projectInfos) throws WssServiceException {
+        Map<String, String> parameters = createParameters(UPDATE_REQUEST, orgToken, product, productVersion);
+        parameters.put("updateType", UPDATE_TYPE);
+        return send(parameters, projectInfos, UpdateInventoryResult.class);
+    }
+
+    @Override
+    public CheckPolicyComplianceResult checkPolicyCompliance(String orgToken, String product, String productVersion,
+                                                             Collection<AgentProjectInfo> projectInfos,
+                                                             boolean forceCheckAllDependencies) throws WssServiceException {
+        Map<String, String> parameters = createParameters(CHECK_POLICY_COMPLIANCE_REQUEST, orgToken, product, productVersion);
+        parameters.put("forceCheckAllDependencies", String.valueOf(forceCheckAllDependencies));
+        return send(parameters, projectInfos, CheckPolicyComplianceResult.class);
+    }
+
+    /**
+     * Closes the connection of the request the given thread is sending.
+     */
+    @Override
+    public void abort(Thread thread) {
+        HttpURLConnection connection = connections.remove(thread);
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Does nothing, idle connections are closed by the JDK keep-alive cache.
+     */
+    @Override
+    public void shutdown() {
+    }
+
+    /* --- Private methods --- */
+
+    private Map<String, String> createParameters(String requestType, String orgToken, String product, String productVersion) {
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        parameters.put("type", requestType);
+        parameters.put("agent", agent);
+        parameters.put("agentVersion", agentVersion);
+        parameters.put("pluginVersion", pluginVersion);
+        parameters.put("token", orgToken);
+        parameters.put("product", product);
+        parameters.put("productVersion", productVersion);
+        parameters.put("timeStamp", String.valueOf(System.currentTimeMillis()));
+        return parameters;
+    }
+
+    private <T> T send(Map<String, String> parameters, Collection<AgentProjectInfo> projectInfos, Class<T> resultType)
+            throws WssServiceException {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) serviceUrl.openConnection();
+            connections.put(Thread.currentThread(), connection);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Request aborted");
+            }
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(CHUNK_SIZE);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+            connection.setRequestProperty("Accept", "application/json");
+
+            CountingOutputStream body = new CountingOutputStream(connection.getOutputStream());
+            try (OutputStream os = new BufferedOutputStream(body, CHUNK_SIZE)) {
+                writeForm(os, parameters, projectInfos);
+            } finally {
+                metrics.addPayloadBytes(body.count);
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                drain(connection.getErrorStream());
+                String message = "White Source service responded with HTTP status " + status + " " + connection.getResponseMessage();
+                throw new WssServiceException(message, new HttpResponseException(status, message));
+            }
+            ResultEnvelope envelope;
+            try (InputStream is = connection.getInputStream()) {
+                envelope = gson.fromJson(new InputStreamReader(is, StandardCharsets.UTF_8), ResultEnvelope.class);
+                drain(is);
+            }
+            if (envelope == null || envelope.status != STATUS_SUCCESS) {
+                throw new WssServiceException("White Source service request failed: "
+                        + (envelope == null ? "empty response" : envelope.message));
+            }
+            return gson.fromJson(envelope.data, resultType);
+        } catch (IOException | RuntimeException e) {
+            throw new WssServiceException("Failed to send request to " + serviceUrl + ": " + e.getMessage(), e);
+        } finally {
+            connections.remove(Thread.currentThread());
+        }
+    }
+
+    /**
+     * Reads the rest of a response, so that its connection can be reused.
+     */
+    private static void drain(InputStream is) throws IOException {
+        if (is != null) {
+            try {
+                byte[] buffer = new byte[8192];
+                while (is.read(buffer) != -1) {
+                    // discard
+                }
+            } finally {
+                is.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the form parameters followed by the inventory, as the gzip compressed and base64 encoded
+     * JSON array of modules the service expects in the <code>diff</code> parameter.
+     */
+    private void writeForm(OutputStream os, Map<String, String> parameters, Collection<AgentProjectInfo> projectInfos)
+            throws IOException {
+        StringBuilder form = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (parameter.getValue() != null) {
+                form.append(URLEncoder.encode(parameter.getKey(), "UTF-8")).append('=')
+                        .append(URLEncoder.encode(parameter.getValue(), "UTF-8")).append('&');
+            }
+        }
+        form.append("diff=");
+        os.write(form.toString().getBytes(StandardCharsets.UTF_8));
+
+        // closing the writer completes the gzip stream and the base64 padding, but leaves the request open
+        OutputStream base64 = Base64.getEncoder().wrap(new Base64FormEncoder(os));
+        try (JsonWriter jsonWriter = new JsonWriter(new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(base64, CHUNK_SIZE), StandardCharsets.UTF_8), CHUNK_SIZE))) {
+            jsonWriter.beginArray();
+            for (AgentProjectInfo projectInfo : projectInfos) {
+                gson.toJson(projectInfo, AgentProjectInfo.class, jsonWriter);
+            }
+            jsonWriter.endArray();
+        }
+    }
+
+    /* --- Getters / Setters --- */
+
+    /**
+     * @param connectTimeoutMillis connection timeout, zero for none.
+     */
+    public void setConnectTimeout(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * @param readTimeoutMillis timeout of each read of the response, zero for none.
+     */
+    public void setReadTimeout(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @param metrics metrics to count request body sizes in.
+     */
+    public void setMetrics(TaskMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /* --- Nested classes --- */
+
+    /**
+     * Form encodes base64 output, escaping the only three characters of the base64 alphabet that need it.
+     * Closing it flushes, but does not close, the underlying stream.
+     */
+    private static class Base64FormEncoder extends FilterOutputStream {
+
+        private static final byte[] ESCAPED_PLUS = {'%', '2', 'B'};
+
+        private static final byte[] ESCAPED_SLASH = {'%', '2', 'F'};
+
+        private static final byte[] ESCAPED_EQUALS = {'%', '3', 'D'};
+
+        private Base64FormEncoder(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            switch (b) {
+                case '+':
+                    out.write(ESCAPED_PLUS);
+                    break;
+                case '/':
+                    out.write(ESCAPED_SLASH);
+                    break;
+                case '=':
+                    out.write(ESCAPED_EQUALS);
+                    break;
+                default:
+                    out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int start = off;
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '+' || b[i] == '/' || b[i] == '=') {
+                    out.write(b, start, i - start);
+                    write(b[i]);
+                    start = i + 1;
+                }
+            }
+            out.write(b, start, off + len - start);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * Counts the bytes written to the request body.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Response envelope of the White Source service, the result itself is a JSON document in <code>data</code>.
+     */
+    private static class ResultEnvelope {
+
+        private int status;
+
+        private String message;
+
+        private String data;
+    }
+}
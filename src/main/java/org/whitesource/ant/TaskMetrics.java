@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import com.google.gson.GsonBuilder;
+import org.apache.tools.ant.Project;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wall time and throughput of the phases of a White Source task run.
+ * <p>
+ * Phases may run several times, from several threads, their durations are summed. Metrics are published
+ * as ant properties prefixed with {@value #PROPERTY_PREFIX} and can be written to a JSON file.
+ * Request payload sizes are counted by the transport, as request bodies are sent.
+ */
+public class TaskMetrics {
+
+    /* --- Static members --- */
+
+    public static final String VALIDATE = "validateAndPrepare";
+    public static final String LIST_PATHS = "listPaths";
+    public static final String HASH = "hash";
+    public static final String JAVA_SCRIPT_HASH = "javaScriptHash";
+    public static final String CHECK_POLICIES = "checkPolicies";
+    public static final String GENERATE_REPORT = "generateReport";
+    public static final String UPDATE_INVENTORY = "updateInventory";
+
+    private static final String[] PHASES = {VALIDATE, LIST_PATHS, HASH, JAVA_SCRIPT_HASH, CHECK_POLICIES, GENERATE_REPORT, UPDATE_INVENTORY};
+
+    public static final String PROPERTY_PREFIX = "whitesource.metrics.";
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /* --- Members --- */
+
+    private final Map<String, Phase> phases;
+
+    private final AtomicLong filesHashed;
+
+    private final AtomicLong bytesHashed;
+
+    private final AtomicLong filesSkipped;
+
+    private final AtomicLong javaScriptFilesHashed;
+
+    private final AtomicLong javaScriptBytesHashed;
+
+    private final AtomicLong javaScriptFilesSkipped;
+
+    private final AtomicLong payloadBytes;
+
+    private final AtomicLong requests;
+
+    /* --- Constructors --- */
+
+    public TaskMetrics() {
+        phases = new HashMap<String, Phase>();
+        for (String phase : PHASES) {
+            phases.put(phase, new Phase());
+        }
+        filesHashed = new AtomicLong();
+        bytesHashed = new AtomicLong();
+        filesSkipped = new AtomicLong();
+        javaScriptFilesHashed = new AtomicLong();
+        javaScriptBytesHashed = new AtomicLong();
+        javaScriptFilesSkipped = new AtomicLong();
+        payloadBytes = new AtomicLong();
+        requests = new AtomicLong();
+    }
+
+    /* --- Public methods --- */
+
+    /**
+     * @return start time to pass to {@link #stop(String, long)}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time elapsed since the given start time to the phase.
+     */
+    public void stop(String phase, long start) {
+        Phase metrics = phases.get(phase);
+        if (metrics == null) {
+            throw new IllegalArgumentException("Unknown phase " + phase);
+        }
+        metrics.nanos.addAndGet(System.nanoTime() - start);
+        metrics.count.incrementAndGet();
+    }
+
+    /**
+     * Counts a file whose content was read to calculate its checksums.
+     */
+    public void addHashedFile(long length) {
+        filesHashed.incrementAndGet();
+        bytesHashed.addAndGet(length);
+    }
+
+    /**
+     * Counts a file left out of the inventory for exceeding the fingerprinting time budget.
+     */
+    public void addSkippedFile() {
+        filesSkipped.incrementAndGet();
+    }
+
+    /**
+     * Counts a JavaScript file whose JavaScript specific checksums were calculated.
+     */
+    public void addJavaScriptFile(long length) {
+        javaScriptFilesHashed.incrementAndGet();
+        javaScriptBytesHashed.addAndGet(length);
+    }
+
+    /**
+     * Counts a JavaScript file left without JavaScript specific checksums, for exceeding the size limit.
+     */
+    public void addSkippedJavaScriptFile() {
+        javaScriptFilesSkipped.incrementAndGet();
+    }
+
+    /**
+     * Counts a request sent to White Source.
+     */
+    public void addRequest() {
+        requests.incrementAndGet();
+    }
+
+    /**
+     * Counts the body of a request as sent by the transport, once per attempt.
+     */
+    public void addPayloadBytes(long bytes) {
+        payloadBytes.addAndGet(bytes);
+    }
+
+    public long getMillis(String phase) {
+        Phase metrics = phases.get(phase);
+        return metrics == null ? 0 : metrics.nanos.get() / NANOS_PER_MILLI;
+    }
+
+    public long getFilesHashed() {
+        return filesHashed.get();
+    }
+
+    public long getBytesHashed() {
+        return bytesHashed.get();
+    }
+
+    public long getFilesSkipped() {
+        return filesSkipped.get();
+    }
+
+    public long getJavaScriptFilesHashed() {
+        return javaScriptFilesHashed.get();
+    }
+
+    public long getJavaScriptBytesHashed() {
+        return javaScriptBytesHashed.get();
+    }
+
+    public long getJavaScriptFilesSkipped() {
+        return javaScriptFilesSkipped.get();
+    }
+
+    /**
+     * @return files hashed per second of hashing phase wall time.
+     */
+    public double getFilesPerSecond() {
+        long nanos = phases.get(HASH).nanos.get();
+        return nanos == 0 ? 0 : filesHashed.get() * 1e9 / nanos;
+    }
+
+    /**
+     * @return total size of the request bodies sent, retried requests included.
+     */
+    public long getPayloadBytes() {
+        return payloadBytes.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Sets the metrics as ant properties, replacing the values set by a previous task, so that the properties
+     * hold the metrics of the last task run. Properties set as user properties (i.e. with -D) are left unchanged.
+     */
+    public void setProperties(Project project) {
+        for (Map.Entry<String, Object> entry : toMap().entrySet()) {
+            if (entry.getValue() instanceof Map) {
+                for (Map.Entry<?, ?> phaseEntry : ((Map<?, ?>) entry.getValue()).entrySet()) {
+                    project.setProperty(PROPERTY_PREFIX + entry.getKey() + "." + phaseEntry.getKey(),
+                            String.valueOf(phaseEntry.getValue()));
+                }
+            } else {
+                project.setProperty(PROPERTY_PREFIX + entry.getKey(), String.valueOf(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Writes the metrics as a JSON object, replacing the file atomically.
+     */
+    public void write(File file) throws IOException {
+        File tempFile = IoUtils.createTempFileFor(file);
+        try {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+                new GsonBuilder().setPrettyPrinting().create().toJson(toMap(), writer);
+            }
+            IoUtils.moveAtomically(tempFile, file);
+        } finally {
+            IoUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (String phase : PHASES) {
+            Map<String, Object> phaseMap = new LinkedHashMap<String, Object>();
+            phaseMap.put("millis", getMillis(phase));
+            phaseMap.put("count", phases.get(phase).count.get());
+            map.put(phase, phaseMap);
+        }
+        map.put("filesHashed", getFilesHashed());
+        map.put("bytesHashed", getBytesHashed());
+        map.put("filesPerSecond", Math.round(getFilesPerSecond() * 10) / 10.0);
+        map.put("filesSkipped", getFilesSkipped());
+        map.put("javaScriptFilesHashed", getJavaScriptFilesHashed());
+        map.put("javaScriptBytesHashed", getJavaScriptBytesHashed());
+        map.put("javaScriptFilesSkipped", getJavaScriptFilesSkipped());
+        map.put("requests", getRequests());
+        map.put("payloadBytes", getPayloadBytes());
+        return map;
+    }
+
+    /* --- Nested classes --- */
+
+    private static class Phase {
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        private final AtomicLong count = new AtomicLong();
+    }
+}
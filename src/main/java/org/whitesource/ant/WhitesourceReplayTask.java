@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
+import org.whitesource.agent.client.WssServiceException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Sends inventories captured by the {@link WhitesourceTask} <code>capturefile</code> attribute to White Source.
+ * <p>
+ * Capture files from several builds are merged into a single inventory, a module captured by several builds
+ * being sent once with the dependencies of all its parts.
+ */
+public class WhitesourceReplayTask extends Task {
+
+    /* --- Property members --- */
+
+    /**
+     * Unique identifier of the organization with White Source.
+     */
+    private String apiKey;
+
+    /**
+     * Name or unique identifier of the product to update.
+     */
+    private String product;
+
+    /**
+     * Version of the product to update.
+     */
+    private String productVersion;
+
+    /**
+     * White Source service url. Leave blank to use the wss.url system property, or the default SaaS service.
+     */
+    private String wssUrl;
+
+    /**
+     * Transport, timeouts, retries and deadline of the requests to White Source.
+     */
+    private ServiceSettings serviceSettings;
+
+    /**
+     * Whether or not to stop the build when encountering an error.
+     */
+    private boolean failOnError;
+
+    /**
+     * Maximum number of modules sent per update request, zero or less sends all modules in a single request.
+     */
+    private int batchSize;
+
+    /**
+     * Single capture file to send.
+     */
+    private File file;
+
+    /**
+     * Capture files to send.
+     */
+    private Vector<FileSet> fileSets;
+
+    /* --- Overridden Ant Task methods --- */
+
+    @Override
+    public void init() throws BuildException {
+        super.init();
+
+        failOnError = true;
+        serviceSettings = new ServiceSettings();
+        batchSize = 0;
+        fileSets = new Vector<FileSet>();
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if (StringUtils.isBlank(apiKey)) {
+            error("Missing API Key");
+            return;
+        }
+        if (StringUtils.isBlank(product)) {
+            product = getProject().getName();
+        }
+        wssUrl = ServiceSettings.resolveServiceUrl(wssUrl);
+        for (String serviceError : serviceSettings.validate(wssUrl)) {
+            error(serviceError);
+        }
+        RetryPolicy retryPolicy = serviceSettings.newRetryPolicy(this);
+
+        List<File> captureFiles = getCaptureFiles();
+        if (captureFiles.isEmpty()) {
+            error("No capture files to send");
+            return;
+        }
+
+        log("Sending " + captureFiles.size() + " captured inventories");
+        log("Service Url is " + wssUrl);
+        InventoryService service = serviceSettings.newService(wssUrl, null);
+        InventorySubmitter submitter = new InventorySubmitter(service, apiKey, product, productVersion, batchSize, null);
+        submitter.setRetryPolicy(retryPolicy);
+        try {
+            submitter.start();
+            int modules = new InventoryCaptureMerger(captureFiles).merge(submitter);
+            log("Updating White Source with " + modules + " modules");
+            submitter.finish();
+            submitter.getSummary().log(this);
+        } catch (IOException e) {
+            error("Failed to read captured inventories: " + e.getMessage());
+        } catch (WssServiceException e) {
+            error("A problem occurred while updating projects: " + e.getMessage());
+        } finally {
+            submitter.close();
+            service.shutdown();
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private List<File> getCaptureFiles() {
+        List<File> captureFiles = new ArrayList<File>();
+        if (file != null) {
+            captureFiles.add(file);
+        }
+        for (FileSet fileSet : fileSets) {
+            DirectoryScanner scanner = fileSet.getDirectoryScanner(getProject());
+            for (String includedFile : scanner.getIncludedFiles()) {
+                captureFiles.add(new File(scanner.getBasedir(), includedFile));
+            }
+        }
+        return captureFiles;
+    }
+
+    private void error(String errorMsg) {
+        if (failOnError) {
+            throw new BuildException(errorMsg);
+        } else {
+            log(errorMsg, Project.MSG_ERR);
+        }
+    }
+
+    /* --- Property set methods --- */
+
+    public void setFailonerror(boolean failonerror) {
+        this.failOnError = failonerror;
+    }
+
+    public void setApikey(String apikey) {
+        this.apiKey = apikey;
+    }
+
+    public void setWssurl(String wssurl) {
+        this.wssUrl = wssurl;
+    }
+
+    public void setProduct(String product) {
+        this.product = product;
+    }
+
+    public void setProductVersion(String productVersion) {
+        this.productVersion = productVersion;
+    }
+
+    public void setBatchsize(int batchsize) {
+        this.batchSize = batchsize;
+    }
+
+    public void setTransport(String transport) {
+        serviceSettings.setTransport(transport);
+    }
+
+    public void setConnecttimeout(int connecttimeout) {
+        serviceSettings.setConnectTimeout(connecttimeout);
+    }
+
+    public void setReadtimeout(int readtimeout) {
+        serviceSettings.setReadTimeout(readtimeout);
+    }
+
+    public void setRetries(int retries) {
+        serviceSettings.setRetries(retries);
+    }
+
+    public void setDeadline(long deadline) {
+        serviceSettings.setDeadline(deadline);
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    public void addFileset(FileSet fileSet) {
+        this.fileSets.add(fileSet);
+    }
+}
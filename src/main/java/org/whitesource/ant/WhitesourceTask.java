@@ -20,25 +20,18 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
-import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.slf4j.Logger;
 import org.whitesource.agent.api.dispatch.CheckPolicyComplianceResult;
-import org.whitesource.agent.api.dispatch.UpdateInventoryResult;
 import org.whitesource.agent.api.model.AgentProjectInfo;
-import org.whitesource.agent.api.model.ChecksumType;
-import org.whitesource.agent.api.model.Coordinates;
-import org.whitesource.agent.api.model.DependencyInfo;
-import org.whitesource.agent.client.WhitesourceService;
 import org.whitesource.agent.client.WssServiceException;
-import org.whitesource.agent.hash.ChecksumUtils;
-import org.whitesource.agent.hash.HashAlgorithm;
-import org.whitesource.agent.hash.HashCalculator;
 import org.whitesource.agent.report.PolicyCheckReport;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Sends an inventory update request to White Source.
@@ -47,6 +40,10 @@ import java.util.*;
  */
 public class WhitesourceTask extends Task {
 
+    /* --- Static members --- */
+
+    private static final AtomicBoolean LOGGER_CONFIGURED = new AtomicBoolean();
+
     /* --- Property members --- */
 
     /**
@@ -80,7 +77,7 @@ public class WhitesourceTask extends Task {
     private Vector<CheckPolicies> checkPolicies;
 
     /**
-     * White Source service url. Leave blank to use default, SaaS.
+     * White Source service url. Leave blank to use the wss.url system property, or the default SaaS service.
      */
     private String wssUrl;
 
@@ -89,6 +86,133 @@ public class WhitesourceTask extends Task {
      */
     private boolean forceUpdate;
 
+    /**
+     * Number of threads used to calculate dependency checksums.
+     */
+    private int threads;
+
+    /**
+     * File used to persist calculated checksums between runs. Leave blank to disable.
+     */
+    private File cacheFile;
+
+    /**
+     * Maximum number of entries kept in the checksum cache file.
+     */
+    private int cacheSize;
+
+    /**
+     * Minimal file size, in bytes, for which checksums are calculated through memory mapped windows.
+     * Zero disables memory mapping.
+     */
+    private long mmapThreshold;
+
+    /**
+     * Comma separated directory names, or paths relative to the base directory, to skip when scanning the default module,
+     * in addition to ant's default excludes (i.e. ".git,node_modules").
+     */
+    private String excludeDirs;
+
+    /**
+     * Whether or not to scan the default module using {@link #threads} threads.
+     */
+    private boolean parallelScan;
+
+    /**
+     * File recording the dependencies last submitted per module. When set, unchanged modules are not sent again.
+     */
+    private File manifestFile;
+
+    /**
+     * Whether or not to send all modules even if they are unchanged since the last update.
+     */
+    private boolean forceFullSync;
+
+    /**
+     * Maximum number of modules sent in a single update request. Zero sends all modules in one request.
+     */
+    private int batchSize;
+
+    /**
+     * Whether or not to send and release each batch of modules as soon as it is collected,
+     * instead of keeping the whole inventory in memory.
+     */
+    private boolean lowMemory;
+
+    /**
+     * JSON file to write the task metrics to.
+     */
+    private File metricsFile;
+
+    /**
+     * File to write the inventory to instead of sending it, see {@link WhitesourceReplayTask}.
+     */
+    private File captureFile;
+
+    /**
+     * Whether or not to fingerprint the dependencies embedded in archives, such as the jars bundled in a war.
+     */
+    private boolean deepScan;
+
+    /**
+     * Number of nested archive levels to open when deep scanning.
+     */
+    private int deepScanDepth;
+
+    /**
+     * Maximum number of bytes hashed or inflated when deep scanning a single archive.
+     */
+    private long deepScanLimit;
+
+    /**
+     * Whether or not to share file fingerprints with the other White Source tasks of the same build.
+     */
+    private boolean shareFingerprints;
+
+    /**
+     * Maximum number of files read at the same time from each file store by all White Source tasks of the build,
+     * zero for no limit. The first task of the build setting a limit sets it for the whole build.
+     */
+    private int maxConcurrentReads;
+
+    /**
+     * Transport, timeouts, retries and deadline of the requests to White Source.
+     */
+    private ServiceSettings serviceSettings;
+
+    /**
+     * File indexing the fingerprints of well known artifacts, shareable between projects and build nodes.
+     * Leave blank to disable.
+     */
+    private File artifactIndexFile;
+
+    /**
+     * Percentage of the artifacts found in the artifact index to hash anyway, to detect false matches.
+     */
+    private int artifactIndexVerification;
+
+    /**
+     * Number of threads calculating JavaScript checksums apart from binary checksums, zero to calculate both on the same threads.
+     * Not used when concurrent reads are limited, as each file is then read by a single thread under a single read slot.
+     */
+    private int javaScriptThreads;
+
+    /**
+     * Size in bytes above which JavaScript files, typically bundles, are fingerprinted without JavaScript checksums. Zero for no limit.
+     */
+    private long javaScriptSizeLimit;
+
+    /**
+     * Seconds after which files not fingerprinted yet are skipped, zero for no time budget. Modules with skipped files
+     * are left out of the update and fail the policy check, rather than being reported partially.
+     */
+    private long hashBudget;
+
+    /**
+     * JSON lines file to write a diagnostics record per dependency and module to. Leave blank to disable.
+     */
+    private File diagnosticsFile;
+
 	/* --- Members --- */
 
     private boolean shouldCheckPolicies;
@@ -99,9 +223,37 @@ public class WhitesourceTask extends Task {
 
     private Collection<AgentProjectInfo> projectInfos;
 
-    private WhitesourceService service;
+    /**
+     * Modules left out for files skipped when the hash budget was exceeded.
+     */
+    private List<String> partialModules;
+
+    private InventoryService service;
+
+    private ChecksumCache checksumCache;
+
+    private KnownArtifactIndex artifactIndex;
+
+    private ModuleScanner moduleScanner;
+
+    private JavaScriptHasher javaScriptHasher;
+
+    private ScanDiagnostics diagnostics;
+
+    /**
+     * Formats of the policy check report written in a single pass, null for the legacy report.
+     */
+    private List<String> reportFormats;
+
+    private ExecutorService reportExecutor;
+
+    private Future<?> policiesReport;
 
-    private static final String JAVA_SCRIPT_REGEX = ".*\\.js";
+    private TaskMetrics metrics;
+
+    private InventoryManifest inventoryManifest;
+
+    private RetryPolicy retryPolicy;
 
 	/* --- Overridden Ant Task methods --- */
 
@@ -113,25 +265,79 @@ public class WhitesourceTask extends Task {
         checkPolicies = new Vector<CheckPolicies>();
         failOnError = true;
         forceUpdate = false;
+        threads = 1;
+        cacheSize = Constants.DEFAULT_CHECKSUM_CACHE_SIZE;
+        mmapThreshold = Constants.DEFAULT_MAPPING_THRESHOLD;
+        parallelScan = false;
+        forceFullSync = false;
+        batchSize = 0;
+        lowMemory = false;
+        deepScan = false;
+        deepScanDepth = Constants.DEFAULT_DEEP_SCAN_DEPTH;
+        deepScanLimit = Constants.DEFAULT_DEEP_SCAN_LIMIT;
+        shareFingerprints = false;
+        maxConcurrentReads = Runtime.getRuntime().availableProcessors();
+        serviceSettings = new ServiceSettings();
+        artifactIndexVerification = 0;
+        javaScriptThreads = 0;
+        javaScriptSizeLimit = 0;
+        hashBudget = 0;
         shouldCheckPolicies = false;
         forceCheckAllDependencies = false;
         projectInfos = new ArrayList<AgentProjectInfo>();
+        partialModules = new ArrayList<String>();
+        metrics = new TaskMetrics();
     }
 
     @Override
     public void execute() throws BuildException {
-        validateAndPrepare();
-        scanModules();
-        createService();
         try {
-            checkPolicies();
-        } catch (BuildException e) {
-            if (forceUpdate) {
+            long start = metrics.start();
+            validateAndPrepare();
+            metrics.stop(TaskMetrics.VALIDATE, start);
+
+            if (captureFile != null) {
+                captureInventory();
+                saveCaches();
+                return;
+            }
+            if ((batchSize > 0 || lowMemory) && !shouldCheckPolicies) {
+                // no need to wait for the whole inventory, send each batch as soon as it is collected
+                createService();
+                scanAndUpdateInventory();
+                saveCaches();
+                return;
+            }
+            scanModules();
+            saveCaches();
+            if (shouldCheckPolicies && !partialModules.isEmpty()) {
+                // the remaining modules alone can not pass the policy check for the whole inventory
+                error("Policies can not be checked, hash budget exceeded before fingerprinting all files of modules "
+                        + StringUtils.join(partialModules, ", "));
+            }
+            createService();
+            if (shouldCheckPolicies) {
+                // the update does not depend on the policy check outcome, overlap both requests
+                checkPoliciesAndUpdateInventory();
+            } else {
                 updateInventory();
-                error(e);
             }
+            awaitPoliciesReport();
+        } finally {
+            if (policiesReport != null) {
+                // the build is failing, still complete the report
+                try {
+                    awaitPoliciesReport();
+                } catch (BuildException e) {
+                    log(e.getMessage(), Project.MSG_ERR);
+                }
+            }
+            if (javaScriptHasher != null) {
+                javaScriptHasher.close();
+            }
+            closeDiagnostics();
+            publishMetrics();
         }
-        updateInventory();
     }
 
 	/* --- Private methods --- */
@@ -150,6 +356,38 @@ public class WhitesourceTask extends Task {
             product = getProject().getName();
         }
 
+        // threads
+        if (threads < 1) {
+            error("Threads must be a positive number");
+            threads = 1;
+        }
+
+        // service calls
+        wssUrl = ServiceSettings.resolveServiceUrl(wssUrl);
+        for (String serviceError : serviceSettings.validate(wssUrl)) {
+            error(serviceError);
+        }
+        retryPolicy = serviceSettings.newRetryPolicy(this);
+
+        // JavaScript
+        if (javaScriptThreads < 0 || javaScriptSizeLimit < 0) {
+            error("JavaScript threads and size limit must not be negative numbers");
+            javaScriptThreads = 0;
+            javaScriptSizeLimit = 0;
+        }
+
+        // time budget
+        if (hashBudget < 0) {
+            error("Hash budget must not be a negative number of seconds");
+            hashBudget = 0;
+        }
+
+        // deep scan
+        if (deepScan && (deepScanDepth < 1 || deepScanLimit <= 0)) {
+            error("Deep scan depth and limit must be positive numbers");
+            deepScan = false;
+        }
+
         // modules
         if (modules.isEmpty()) {
             Module module = new Module(); // Treat whole project as single module
@@ -188,27 +426,172 @@ public class WhitesourceTask extends Task {
             if (!reportDir.exists() && !reportDir.mkdirs()) {
                 error("Policies report directory doesn't exists and can not be created");
             }
+            if (policyCheck.getCachefile() != null && policyCheck.getCachettl() <= 0) {
+                error("Policy check cache time to live must be a positive number of minutes");
+            }
+            reportFormats = parseReportFormats(policyCheck.getReportformat());
+        }
+
+        // capture
+        if (captureFile != null && shouldCheckPolicies) {
+            log("Policies are not checked when capturing the inventory", Project.MSG_WARN);
+            shouldCheckPolicies = false;
+        }
+
+        // low memory
+        if (lowMemory) {
+            if (shouldCheckPolicies) {
+                log("Low memory mode is not supported when checking policies, the whole inventory will be kept in memory", Project.MSG_WARN);
+                lowMemory = false;
+            } else if (batchSize <= 0) {
+                batchSize = 1;
+            }
+        }
+
+        // checksum cache
+        if (cacheFile != null && cacheSize < 1) {
+            error("Checksum cache size must be a positive number of entries");
+            cacheSize = Constants.DEFAULT_CHECKSUM_CACHE_SIZE;
+        }
+        if (cacheFile != null) {
+            checksumCache = new ChecksumCache(cacheFile, cacheSize);
+            try {
+                checksumCache.load();
+                log("Loaded " + checksumCache.size() + " cached checksums from " + cacheFile, Project.MSG_VERBOSE);
+            } catch (IOException e) {
+                log("Ignoring checksum cache " + cacheFile + ", all checksums will be recalculated: " + e.getMessage(), Project.MSG_WARN);
+            }
+        }
+
+        // known artifact index
+        if (artifactIndexFile != null) {
+            if (artifactIndexVerification < 0 || artifactIndexVerification > 100) {
+                error("Artifact index verification must be a percentage between 0 and 100");
+                artifactIndexVerification = 0;
+            }
+            artifactIndex = new KnownArtifactIndex(artifactIndexFile, Constants.KNOWN_ARTIFACT_EXTENSIONS, getScanVariant());
+            artifactIndex.setVerificationRate(artifactIndexVerification);
+            try {
+                artifactIndex.load();
+            } catch (IOException e) {
+                log("Ignoring artifact index " + artifactIndexFile + ": " + e.getMessage(), Project.MSG_WARN);
+            }
+        }
+
+        // incremental update
+        if (manifestFile != null) {
+            inventoryManifest = new InventoryManifest(manifestFile, apiKey, wssUrl);
+            try {
+                inventoryManifest.load();
+            } catch (IOException e) {
+                log("Ignoring inventory manifest " + manifestFile + ", all modules will be updated: " + e.getMessage(), Project.MSG_WARN);
+            }
+        }
+
+        ChecksumEngine checksumEngine = new ChecksumEngine();
+        checksumEngine.setMappingThreshold(mmapThreshold);
+        moduleScanner = new ModuleScanner(this, checksumEngine, threads);
+        moduleScanner.setChecksumCache(checksumCache);
+        moduleScanner.setArtifactIndex(artifactIndex);
+        moduleScanner.setMetrics(metrics);
+        javaScriptHasher = new JavaScriptHasher(javaScriptThreads, javaScriptSizeLimit);
+        javaScriptHasher.setMetrics(metrics);
+        moduleScanner.setJavaScriptHasher(javaScriptHasher);
+        if (deepScan) {
+            moduleScanner.setArchiveScanner(new ArchiveScanner(Constants.DEFAULT_SCAN_EXTENSIONS, deepScanDepth, deepScanLimit));
+        }
+
+        // tasks run in parallel
+        if (shareFingerprints && !lowMemory) {
+            SharedFingerprintStore sharedStore = SharedFingerprintStore.getInstance();
+            sharedStore.clearOnBuildFinished(getProject());
+            moduleScanner.setSharedStore(sharedStore, getFingerprintVariant());
+        }
+        if (maxConcurrentReads > 0) {
+            IoLimiter ioLimiter = IoLimiter.forBuild(getProject(), maxConcurrentReads);
+            if (ioLimiter.getPermits() != maxConcurrentReads) {
+                log("Ignoring maxconcurrentreads of " + maxConcurrentReads + ", the build already reads at most "
+                        + ioLimiter.getPermits() + " files at the same time from each disk", Project.MSG_WARN);
+            }
+            moduleScanner.setIoLimiter(ioLimiter);
+            javaScriptHasher.setIoLimiter(ioLimiter);
+            if (javaScriptThreads > 0) {
+                log("JavaScript checksums are calculated on the scanning threads, as concurrent reads are limited", Project.MSG_VERBOSE);
+            }
+        }
+
+        // diagnostics
+        if (diagnosticsFile != null) {
+            diagnostics = new ScanDiagnostics(diagnosticsFile);
+            try {
+                diagnostics.open();
+                moduleScanner.setDiagnostics(diagnostics);
+            } catch (IOException e) {
+                log("Diagnostics are disabled, failed to create " + diagnosticsFile + ": " + e.getMessage(), Project.MSG_WARN);
+                diagnostics = null;
+            }
+        }
+
+        moduleScanner.setTimeBudget(TimeUnit.SECONDS.toMillis(hashBudget));
+    }
+
+    /**
+     * @return the settings a fingerprint depends on, only tasks with the same settings share fingerprints.
+     */
+    private String getFingerprintVariant() {
+        StringBuilder variant = new StringBuilder(getScanVariant());
+        if (artifactIndex != null) {
+            variant.append(";artifactindex=").append(artifactIndexFile.getAbsolutePath()).append(',').append(artifactIndexVerification);
+        }
+        return variant.toString();
+    }
+
+    /**
+     * @return the scan settings the checksums of a file and its embedded dependencies depend on.
+     */
+    private String getScanVariant() {
+        StringBuilder variant = new StringBuilder("javascript=").append(javaScriptSizeLimit);
+        if (deepScan) {
+            variant.append(";deepscan=").append(deepScanDepth).append(',').append(deepScanLimit);
+        }
+        return variant.toString();
+    }
+
+    private void closeDiagnostics() {
+        if (diagnostics != null) {
+            try {
+                diagnostics.close();
+            } catch (IOException e) {
+                log("Failed to write diagnostics file " + diagnosticsFile + ": " + e.getMessage(), Project.MSG_WARN);
+            }
         }
     }
 
     private static void setLoggerConfiguration() {
-        ch.qos.logback.classic.Logger root = (ch.qos.logback.classic.Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
-        root.setLevel(Level.INFO);
+        // the logger is global, configure it once rather than from each task run in parallel
+        if (LOGGER_CONFIGURED.compareAndSet(false, true)) {
+            ch.qos.logback.classic.Logger root = (ch.qos.logback.classic.Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+            root.setLevel(Level.INFO);
+        }
     }
 
     private void addDefaultPaths(Module module) {
         Project project = getProject();
 
-        FileSet fs = new FileSet();
-        fs.setDir(project.getBaseDir());
-        List<String> includes = new ArrayList<String>();
-        for (String extension : Constants.DEFAULT_SCAN_EXTENSIONS) {
-            includes.add("**/*." + extension);
+        List<String> excludedDirs = new ArrayList<String>();
+        if (StringUtils.isNotBlank(excludeDirs)) {
+            for (String dir : excludeDirs.split(",")) {
+                dir = StringUtils.removeEnd(dir.trim().replace('\\', '/'), "/");
+                if (dir.length() > 0) {
+                    excludedDirs.add(dir);
+                }
+            }
         }
-        fs.setIncludes(StringUtils.join(includes, ","));
 
+        DefaultPathScanner scanner = new DefaultPathScanner(project.getBaseDir(),
+                Constants.DEFAULT_SCAN_EXTENSIONS, excludedDirs, parallelScan ? threads : 1);
         Path path = new Path(project);
-        path.addFileset(fs);
+        path.add(scanner);
         module.addPath(path);
     }
 
@@ -216,100 +599,255 @@ public class WhitesourceTask extends Task {
         log("Collecting OSS usage information");
 
         for (Module module : modules) {
-            // create project info
-            AgentProjectInfo projectInfo = new AgentProjectInfo();
-            if (StringUtils.isBlank(module.getName())) {
-                projectInfo.setProjectToken(module.getToken());
-                log("Processing module with token " + module.getToken());
-            } else {
-                projectInfo.setCoordinates(new Coordinates(null, module.getName(), null));
-                log("Processing " + module.getName());
-            }
-
-            // get all files located in module paths
-            Set<File> filesToUpdate = new HashSet<File>(); // We're using a set in order to avoid chance of duplicate files.
-            for (Path path : module.getPaths()) {
-                for (String includedFile : path.list()) {
-                    File file = new File(includedFile);
-                    if (!file.isDirectory()) {
-                        filesToUpdate.add(file);
-                    }
-                }
-            }
-
-            Collection<DependencyInfo> dependencies = projectInfo.getDependencies();
-            for (File file : filesToUpdate) {
-                dependencies.add(createDependencyInfo(file));
+            AgentProjectInfo projectInfo = scanModule(module);
+            if (projectInfo != null) {
+                projectInfos.add(projectInfo);
             }
+        }
+    }
 
-            projectInfos.add(projectInfo);
-            log("Found " + dependencies.size() + " direct dependencies");
-            debugAgentProjectInfos(projectInfos);
+    /**
+     * @return the project info of the given module, null if files were skipped for exceeding the hash budget.
+     */
+    private AgentProjectInfo scanModule(Module module) {
+        int skipped = moduleScanner.getSkippedFiles().size();
+        AgentProjectInfo projectInfo = moduleScanner.scan(module);
+        if (moduleScanner.getSkippedFiles().size() == skipped) {
+            return projectInfo;
         }
+        String moduleName = StringUtils.isBlank(module.getName()) ? module.getToken() : module.getName();
+        partialModules.add(moduleName);
+        log("Module " + moduleName + " is left out, not all of its files were fingerprinted within the hash budget", Project.MSG_WARN);
+        return null;
     }
 
-    private DependencyInfo createDependencyInfo(File dependencyFile) {
-        String fileName = dependencyFile.getName();
-        DependencyInfo dependency = new DependencyInfo();
-        try {
-            dependency.setFilename(fileName);
-            dependency.setArtifactId(fileName);
-            dependency.setSystemPath(dependencyFile.getAbsolutePath());
+    /**
+     * Collects the modules and sends them in batches, each batch being sent while the next one is collected.
+     * In low memory mode modules are not kept once sent, so memory grows with the batch rather than the inventory.
+     */
+    private void scanAndUpdateInventory() {
+        log("Collecting OSS usage information");
 
-            // Calculate sha1
-            dependency.setSha1(ChecksumUtils.calculateSHA1(dependencyFile));
+        InventorySubmitter submitter = new InventorySubmitter(service, apiKey, product, productVersion, batchSize, inventoryManifest);
+        submitter.setMetrics(metrics);
+        submitter.setRetryPolicy(retryPolicy);
+        submitter.start();
+        try {
+            for (Module module : modules) {
+                if (lowMemory) {
+                    // only reuse fingerprints within the module, so they can be released with it
+                    moduleScanner.setContentIndex(new ContentIndex());
+                }
+                AgentProjectInfo projectInfo = scanModule(module);
+                if (projectInfo == null) {
+                    continue;
+                }
+                if (!lowMemory) {
+                    projectInfos.add(projectInfo);
+                }
+                if (hasChanged(projectInfo)) {
+                    submitter.add(projectInfo);
+                }
+            }
+            log("Updating White Source");
+            submitter.finish();
+            if (submitter.getSummary().getRequests() == 0) {
+                log("No changes since last update, skipping White Source update");
+            } else {
+                submitter.getSummary().log(this);
+            }
+        } catch (WssServiceException e) {
+            error("A problem occurred while updating projects: " + e.getMessage());
+        } finally {
+            submitter.close();
+            saveInventoryManifest();
+        }
+    }
 
-            // Calculate md5
-            dependency.addChecksum(ChecksumType.MD5, ChecksumUtils.calculateHash(dependencyFile, HashAlgorithm.MD5));
+    /**
+     * Writes the modules to the capture file as they are collected, without contacting White Source.
+     */
+    private void captureInventory() {
+        log("Collecting OSS usage information");
 
-            // handle JavaScript files
-            if (fileName.toLowerCase().matches(JAVA_SCRIPT_REGEX)) {
-                Map<ChecksumType, String> javaScriptChecksums;
-                try {
-                    javaScriptChecksums = new HashCalculator().calculateJavaScriptHashes(dependencyFile);
-                    for (Map.Entry<ChecksumType, String> entry : javaScriptChecksums.entrySet()) {
-                        dependency.addChecksum(entry.getKey(), entry.getValue());
-                    }
-                } catch (Exception e) {
-                    log("Failed to calculate javaScript hash for file: " + dependencyFile.getPath() + ", error: "+e.getMessage(), Project.MSG_WARN);
+        try (InventoryCaptureWriter writer = new InventoryCaptureWriter(captureFile)) {
+            writer.open();
+            for (Module module : modules) {
+                AgentProjectInfo projectInfo = scanModule(module);
+                if (projectInfo != null) {
+                    writer.write(projectInfo);
                 }
             }
-
-            // Calculate super hash
-            ChecksumUtils.calculateSuperHash(dependency, dependencyFile);
+            writer.commit();
+            log("Captured " + writer.getModules() + " modules to " + captureFile);
         } catch (IOException e) {
-            log("Failed to create dependency " + fileName + " to dependency list: " + e.getMessage(), Project.MSG_ERR);
-            dependency = null;
+            error("Failed to capture inventory to " + captureFile + ": " + e.getMessage());
+        }
+    }
+
+    private void saveCaches() {
+        if (checksumCache != null) {
+            try {
+                checksumCache.save();
+            } catch (IOException e) {
+                log("Failed to save checksum cache " + cacheFile + ": " + e.getMessage(), Project.MSG_WARN);
+            }
+        }
+        if (artifactIndex != null) {
+            log(artifactIndex.getSummary(), Project.MSG_VERBOSE);
+            try {
+                artifactIndex.save();
+            } catch (IOException e) {
+                log("Failed to save artifact index " + artifactIndexFile + ": " + e.getMessage(), Project.MSG_WARN);
+            }
         }
-        return dependency;
     }
 
     private void createService() {
         log("Service Url is " + wssUrl);
-        service = new WhitesourceService(Constants.AGENT_TYPE, Constants.AGENT_VERSION, Constants.PLUGIN_VERSION, wssUrl);
+        service = serviceSettings.newService(wssUrl, metrics);
     }
 
-    private void checkPolicies() {
-        if (shouldCheckPolicies) {
-            log("Checking policies");
+    /**
+     * Checks the inventory against the organization policies on a separate thread, while updating it.
+     * Each request is sent once, and both are completed before any failure is reported.
+     */
+    private void checkPoliciesAndUpdateInventory() {
+        log("Checking policies");
+        ExecutorService executorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "whitesource-policy-check");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        WssServiceException updateFailure = null;
+        boolean policiesHandled = false;
+        try {
+            Future<CheckPolicyComplianceResult> policyCheckResult = executorService.submit(new Callable<CheckPolicyComplianceResult>() {
+                @Override
+                public CheckPolicyComplianceResult call() throws WssServiceException {
+                    return requestPoliciesResult(service);
+                }
+            });
             try {
-                CheckPolicyComplianceResult result = service.checkPolicyCompliance(
-                        apiKey, product, productVersion, projectInfos, forceCheckAllDependencies);
-                handlePoliciesResult(result);
+                submitInventory();
             } catch (WssServiceException e) {
-                error(e);
+                updateFailure = e;
+            }
+
+            CheckPolicyComplianceResult result = awaitPoliciesResult(policyCheckResult);
+            if (result != null) {
+                handlePoliciesResult(result);
+            }
+            policiesHandled = true;
+        } finally {
+            executorService.shutdownNow();
+            if (updateFailure != null) {
+                String message = "A problem occurred while updating projects: " + updateFailure.getMessage();
+                if (policiesHandled) {
+                    error(message);
+                } else {
+                    // keep the policy check failure being thrown
+                    log(message, Project.MSG_ERR);
+                }
             }
         }
     }
 
-    private void handlePoliciesResult(CheckPolicyComplianceResult result) {
-        // generate report
+    private CheckPolicyComplianceResult awaitPoliciesResult(Future<CheckPolicyComplianceResult> policyCheckResult) {
         try {
-            log("Creating policies report", Project.MSG_INFO);
-            PolicyCheckReport report = new PolicyCheckReport(result);
-            report.generate(policyCheck.getReportdir(), false);
+            return policyCheckResult.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error("Interrupted while checking policies");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            error(cause instanceof Exception ? (Exception) cause : new WssServiceException(cause));
+        }
+        return null;
+    }
+
+    /**
+     * @return the policy check result of the inventory, from the policy check cache if enabled and still valid.
+     */
+    private CheckPolicyComplianceResult requestPoliciesResult(final InventoryService policyService) throws WssServiceException {
+        PolicyResultCache resultCache = null;
+        String cacheKey = null;
+        if (policyCheck.getCachefile() != null) {
+            resultCache = new PolicyResultCache(policyCheck.getCachefile(), TimeUnit.MINUTES.toMillis(policyCheck.getCachettl()));
+            cacheKey = PolicyResultCache.key(apiKey, wssUrl, product, productVersion, forceCheckAllDependencies, projectInfos);
+            CheckPolicyComplianceResult cachedResult = getCachedPoliciesResult(resultCache, cacheKey);
+            if (cachedResult != null) {
+                log("Inventory unchanged since last policy check, using cached result");
+                return cachedResult;
+            }
+        }
+
+        metrics.addRequest();
+        long start = metrics.start();
+        CheckPolicyComplianceResult result = retryPolicy.call("Policy check", policyService, new RetryPolicy.ServiceCall<CheckPolicyComplianceResult>() {
+            @Override
+            public CheckPolicyComplianceResult call() throws WssServiceException {
+                return policyService.checkPolicyCompliance(apiKey, product, productVersion, projectInfos, forceCheckAllDependencies);
+            }
+        });
+        metrics.stop(TaskMetrics.CHECK_POLICIES, start);
+        if (resultCache != null) {
+            cachePoliciesResult(resultCache, cacheKey, result);
+        }
+        return result;
+    }
+
+    private CheckPolicyComplianceResult getCachedPoliciesResult(PolicyResultCache resultCache, String cacheKey) {
+        try {
+            return resultCache.get(cacheKey);
         } catch (IOException e) {
-            error(e);
+            log("Ignoring policy check cache " + policyCheck.getCachefile() + ": " + e.getMessage(), Project.MSG_WARN);
+            return null;
+        }
+    }
+
+    private void cachePoliciesResult(PolicyResultCache resultCache, String cacheKey, CheckPolicyComplianceResult result) {
+        try {
+            resultCache.put(cacheKey, result);
+        } catch (IOException e) {
+            log("Failed to save policy check cache " + policyCheck.getCachefile() + ": " + e.getMessage(), Project.MSG_WARN);
+        }
+    }
+
+    /**
+     * Generates the policies report and reports rejections.
+     */
+    private void handlePoliciesResult(final CheckPolicyComplianceResult result) {
+        // generate report
+        log("Creating policies report", Project.MSG_INFO);
+        if (policyCheck.isBackgroundreport()) {
+            reportExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "whitesource-policy-report");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            policiesReport = reportExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    generatePoliciesReport(result);
+                    return null;
+                }
+            });
+        } else {
+            try {
+                generatePoliciesReport(result);
+            } catch (IOException e) {
+                error(e);
+            }
         }
 
         // handle rejections if any
@@ -329,39 +867,128 @@ public class WhitesourceTask extends Task {
         }
     }
 
+    private void generatePoliciesReport(CheckPolicyComplianceResult result) throws IOException {
+        long start = metrics.start();
+        if (reportFormats == null) {
+            PolicyCheckReport report = new PolicyCheckReport(result);
+            report.generate(policyCheck.getReportdir(), false);
+        } else {
+            new PolicyReportWriter(reportFormats).write(result, policyCheck.getReportdir());
+        }
+        metrics.stop(TaskMetrics.GENERATE_REPORT, start);
+    }
+
+    /**
+     * Waits for the policies report written on a separate thread, if any.
+     */
+    private void awaitPoliciesReport() {
+        if (policiesReport == null) {
+            return;
+        }
+        try {
+            policiesReport.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error("Interrupted while creating policies report");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            error(cause instanceof Exception ? (Exception) cause : new IOException(cause));
+        } finally {
+            policiesReport = null;
+            reportExecutor.shutdown();
+        }
+    }
+
     private void updateInventory() {
-        log("Updating White Source");
         try {
-            UpdateInventoryResult result = service.update(apiKey, product, productVersion, projectInfos);
-            logUpdateResult(result);
+            submitInventory();
         } catch (WssServiceException e) {
             error("A problem occurred while updating projects: " + e.getMessage());
         }
     }
 
-    private void logUpdateResult(UpdateInventoryResult result) {
-        log("White Source update results:");
-        log("White Source organization: " + result.getOrganization());
+    /**
+     * Sends the modules changed since the last update, or all modules if there is no inventory manifest.
+     */
+    private void submitInventory() throws WssServiceException {
+        Collection<AgentProjectInfo> toUpdate = projectInfos;
+        if (inventoryManifest != null && !forceFullSync) {
+            toUpdate = inventoryManifest.changed(product, productVersion, projectInfos);
+            if (toUpdate.isEmpty()) {
+                log("No changes since last update, skipping White Source update");
+                return;
+            }
+            log((projectInfos.size() - toUpdate.size()) + " unchanged modules will not be updated", Project.MSG_VERBOSE);
+        }
 
-        // newly created projects
-        Collection<String> createdProjects = result.getCreatedProjects();
-        if (createdProjects.isEmpty()) {
-            log("No new projects found");
-        } else {
-            log(createdProjects.size() + " Newly created projects:");
-            for (String projectName : createdProjects) {
-                log(projectName);
+        log("Updating White Source");
+        InventorySubmitter submitter = new InventorySubmitter(service, apiKey, product, productVersion, batchSize, inventoryManifest);
+        submitter.setMetrics(metrics);
+        submitter.setRetryPolicy(retryPolicy);
+        try {
+            submitter.submit(toUpdate);
+            submitter.getSummary().log(this);
+        } finally {
+            saveInventoryManifest();
+        }
+    }
+
+    private boolean hasChanged(AgentProjectInfo projectInfo) {
+        return inventoryManifest == null || forceFullSync
+                || !inventoryManifest.changed(product, productVersion, Collections.singletonList(projectInfo)).isEmpty();
+    }
+
+    /**
+     * @return the streamed report formats, null for the legacy report.
+     */
+    private List<String> parseReportFormats(String reportFormat) {
+        if (StringUtils.isBlank(reportFormat) || Constants.REPORT_FORMAT_LEGACY.equalsIgnoreCase(reportFormat.trim())) {
+            return null;
+        }
+        List<String> formats = new ArrayList<String>();
+        for (String format : reportFormat.split(",")) {
+            format = format.trim().toLowerCase(Locale.ENGLISH);
+            if (!Constants.STREAMED_REPORT_FORMATS.contains(format)) {
+                error("Policies report format must be " + Constants.REPORT_FORMAT_LEGACY + " or a comma separated list of "
+                        + StringUtils.join(Constants.STREAMED_REPORT_FORMATS, ", "));
+                return null;
             }
+            formats.add(format);
         }
+        return formats;
+    }
 
-        // updated projects
-        Collection<String> updatedProjects = result.getUpdatedProjects();
-        if (updatedProjects.isEmpty()) {
-            log("No projects were updated");
-        } else {
-            log(updatedProjects.size() + " existing projects were updated:");
-            for (String projectName : updatedProjects) {
-                log(projectName);
+    private void saveInventoryManifest() {
+        if (inventoryManifest != null) {
+            try {
+                inventoryManifest.save();
+            } catch (IOException e) {
+                log("Failed to save inventory manifest " + manifestFile + ": " + e.getMessage(), Project.MSG_WARN);
+            }
+        }
+    }
+
+    private void publishMetrics() {
+        log("Hashed " + metrics.getFilesHashed() + " files, " + metrics.getBytesHashed() + " bytes in "
+                + metrics.getMillis(TaskMetrics.HASH) + " ms", Project.MSG_VERBOSE);
+        if (metrics.getJavaScriptFilesHashed() > 0 || metrics.getJavaScriptFilesSkipped() > 0) {
+            log("Calculated JavaScript checksums of " + metrics.getJavaScriptFilesHashed() + " files, "
+                    + metrics.getJavaScriptBytesHashed() + " bytes in " + metrics.getMillis(TaskMetrics.JAVA_SCRIPT_HASH)
+                    + " ms of thread time, skipped " + metrics.getJavaScriptFilesSkipped() + " files over the size limit", Project.MSG_VERBOSE);
+        }
+        if (moduleScanner != null && !moduleScanner.getSkippedFiles().isEmpty()) {
+            log("Hash budget of " + hashBudget + " seconds exceeded, " + moduleScanner.getSkippedFiles().size()
+                    + " files were skipped and " + partialModules.size() + " modules left out of the inventory", Project.MSG_WARN);
+            for (File file : moduleScanner.getSkippedFiles()) {
+                log("Skipped " + file.getPath(), Project.MSG_VERBOSE);
+            }
+        }
+        metrics.setProperties(getProject());
+        if (metricsFile != null) {
+            try {
+                metrics.write(metricsFile);
+            } catch (IOException e) {
+                log("Failed to write metrics file " + metricsFile + ": " + e.getMessage(), Project.MSG_WARN);
             }
         }
     }
@@ -382,23 +1009,6 @@ public class WhitesourceTask extends Task {
         }
     }
 
-    private void debugAgentProjectInfos(Collection<AgentProjectInfo> projectInfos) {
-        log("----------------- dumping projectInfos -----------------", Project.MSG_DEBUG);
-        log("Total number of projects : " + projectInfos.size(), Project.MSG_DEBUG);
-        for (AgentProjectInfo projectInfo : projectInfos) {
-            log("Project coordinates: " + projectInfo.getCoordinates(), Project.MSG_DEBUG);
-            log("Project parent coordinates: " + projectInfo.getParentCoordinates(), Project.MSG_DEBUG);
-            log("Project project token: " + projectInfo.getProjectToken(), Project.MSG_DEBUG);
-
-            Collection<DependencyInfo> dependencies = projectInfo.getDependencies();
-            log("total # of dependencies: " + dependencies.size(), Project.MSG_DEBUG);
-            for (DependencyInfo info : dependencies) {
-                log(info + " SHA-1: " + info.getSha1(), Project.MSG_DEBUG);
-            }
-        }
-        log("----------------- dump finished -----------------", Project.MSG_DEBUG);
-    }
-
     /* --- Property set methods --- */
 
     public void setFailonerror(boolean failonerror) {
@@ -432,4 +1042,116 @@ public class WhitesourceTask extends Task {
     public void setForceUpdate(boolean forceUpdate) {
         this.forceUpdate = forceUpdate;
     }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setCachefile(File cachefile) {
+        this.cacheFile = cachefile;
+    }
+
+    public void setCachesize(int cachesize) {
+        this.cacheSize = cachesize;
+    }
+
+    public void setMmapthreshold(long mmapthreshold) {
+        this.mmapThreshold = mmapthreshold;
+    }
+
+    public void setExcludedirs(String excludedirs) {
+        this.excludeDirs = excludedirs;
+    }
+
+    public void setParallelscan(boolean parallelscan) {
+        this.parallelScan = parallelscan;
+    }
+
+    public void setManifestfile(File manifestfile) {
+        this.manifestFile = manifestfile;
+    }
+
+    public void setForcefullsync(boolean forcefullsync) {
+        this.forceFullSync = forcefullsync;
+    }
+
+    public void setBatchsize(int batchsize) {
+        this.batchSize = batchsize;
+    }
+
+    public void setLowmemory(boolean lowmemory) {
+        this.lowMemory = lowmemory;
+    }
+
+    public void setMetricsfile(File metricsfile) {
+        this.metricsFile = metricsfile;
+    }
+
+    public void setCapturefile(File capturefile) {
+        this.captureFile = capturefile;
+    }
+
+    public void setDeepscan(boolean deepscan) {
+        this.deepScan = deepscan;
+    }
+
+    public void setDeepscandepth(int deepscandepth) {
+        this.deepScanDepth = deepscandepth;
+    }
+
+    public void setDeepscanlimit(long deepscanlimit) {
+        this.deepScanLimit = deepscanlimit;
+    }
+
+    public void setSharefingerprints(boolean sharefingerprints) {
+        this.shareFingerprints = sharefingerprints;
+    }
+
+    public void setMaxconcurrentreads(int maxconcurrentreads) {
+        this.maxConcurrentReads = maxconcurrentreads;
+    }
+
+    public void setTransport(String transport) {
+        serviceSettings.setTransport(transport);
+    }
+
+    public void setArtifactindex(File artifactindex) {
+        this.artifactIndexFile = artifactindex;
+    }
+
+    public void setArtifactindexverification(int artifactindexverification) {
+        this.artifactIndexVerification = artifactindexverification;
+    }
+
+    public void setConnecttimeout(int connecttimeout) {
+        serviceSettings.setConnectTimeout(connecttimeout);
+    }
+
+    public void setReadtimeout(int readtimeout) {
+        serviceSettings.setReadTimeout(readtimeout);
+    }
+
+    public void setRetries(int retries) {
+        serviceSettings.setRetries(retries);
+    }
+
+    public void setDeadline(long deadline) {
+        serviceSettings.setDeadline(deadline);
+    }
+
+    public void setJavascriptthreads(int javascriptthreads) {
+        this.javaScriptThreads = javascriptthreads;
+    }
+
+    public void setJavascriptsizelimit(long javascriptsizelimit) {
+        this.javaScriptSizeLimit = javascriptsizelimit;
+    }
+
+    public void setHashbudget(long hashbudget) {
+        this.hashBudget = hashbudget;
+    }
+
+    public void setDiagnosticsfile(File diagnosticsfile) {
+        this.diagnosticsFile = diagnosticsfile;
+    }
 }
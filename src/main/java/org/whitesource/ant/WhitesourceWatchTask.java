@@ -0,0 +1,551 @@
+/**
+ * Copyright (C) 2012 White Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.whitesource.ant;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.types.resources.FileResource;
+import org.whitesource.agent.api.model.AgentProjectInfo;
+import org.whitesource.agent.api.model.DependencyInfo;
+import org.whitesource.agent.client.WssServiceException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps White Source up to date with the modules of a long lived workspace, such as an artifact store.
+ * <p>
+ * The modules are scanned and sent once, then the directories of their paths are watched for changes.
+ * The fingerprints of all module files are kept in memory, so that only created or modified files are read
+ * again. Changes are debounced: once no change was seen for the debounce period, the changed modules are sent
+ * in a single update, modules whose dependencies turn out unchanged being left out. Modules which failed to be
+ * sent are sent again after another debounce period.
+ * <p>
+ * The task runs for the given duration, or until the build is interrupted. Each watched directory uses a
+ * file system watch, whose number may be limited by the operating system (i.e. inotify on Linux).
+ */
+public class WhitesourceWatchTask extends Task {
+
+    /* --- Static members --- */
+
+    private static final long MAX_DELAY_FACTOR = 10;
+
+    private static final long IDLE_POLL_MILLIS = 60 * 1000;
+
+    /* --- Property members --- */
+
+    /**
+     * Unique identifier of the organization with White Source.
+     */
+    private String apiKey;
+
+    /**
+     * Name or unique identifier of the product to update.
+     */
+    private String product;
+
+    /**
+     * Version of the product to update.
+     */
+    private String productVersion;
+
+    /**
+     * White Source service url. Leave blank to use the wss.url system property, or the default SaaS service.
+     */
+    private String wssUrl;
+
+    /**
+     * Whether or not to stop the build when encountering an error.
+     */
+    private boolean failOnError;
+
+    /**
+     * Modules to watch.
+     */
+    private Vector<Module> modules;
+
+    /**
+     * Number of threads used to calculate dependency checksums.
+     */
+    private int threads;
+
+    /**
+     * Maximum number of modules sent in a single update request. Zero sends all modules in one request.
+     */
+    private int batchSize;
+
+    /**
+     * Seconds without changes to wait for before sending an update.
+     */
+    private int debounce;
+
+    /**
+     * Seconds to watch for, zero to watch until the build is interrupted.
+     */
+    private long duration;
+
+    /* --- Members --- */
+
+    private List<WatchedModule> watchedModules;
+
+    private ModuleScanner moduleScanner;
+
+    private InventoryService service;
+
+    private WatchService watchService;
+
+    /**
+     * Watched directories and the indexes of the modules they belong to.
+     */
+    private Map<java.nio.file.Path, Set<Integer>> watchedDirs;
+
+    /**
+     * Indexes of the modules changed since the last update.
+     */
+    private Set<Integer> changedModules;
+
+    /**
+     * Files created or modified since the last update.
+     */
+    private Set<File> changedFiles;
+
+    /**
+     * Whether or not the last update failed and should be retried.
+     */
+    private boolean updateFailed;
+
+    /* --- Overridden Ant Task methods --- */
+
+    @Override
+    public void init() throws BuildException {
+        super.init();
+
+        modules = new Vector<Module>();
+        failOnError = true;
+        threads = 1;
+        batchSize = 0;
+        debounce = 30;
+        duration = 0;
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if (!validate()) {
+            return;
+        }
+
+        moduleScanner = new ModuleScanner(this, new ChecksumEngine(), threads);
+        watchedModules = new ArrayList<WatchedModule>();
+        watchedDirs = new HashMap<java.nio.file.Path, Set<Integer>>();
+        changedModules = new TreeSet<Integer>();
+        changedFiles = new HashSet<File>();
+        for (Module module : modules) {
+            watchedModules.add(new WatchedModule(module, moduleScanner.createProjectInfo(module)));
+            changedModules.add(watchedModules.size() - 1);
+        }
+
+        wssUrl = ServiceSettings.resolveServiceUrl(wssUrl);
+        log("Service Url is " + wssUrl);
+        service = new AgentInventoryService(Constants.AGENT_TYPE, Constants.AGENT_VERSION, Constants.PLUGIN_VERSION, wssUrl, 0, 0);
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (int i = 0; i < watchedModules.size(); i++) {
+                for (java.nio.file.Path root : getRoots(watchedModules.get(i).module)) {
+                    register(root, i);
+                }
+            }
+            log("Watching " + watchedDirs.size() + " directories of " + modules.size() + " modules");
+
+            // initial scan and update
+            update();
+            watch();
+        } catch (IOException e) {
+            error("Failed to watch module paths: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log("Interrupted, stopped watching module paths");
+        } finally {
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    log("Failed to close watch service: " + e.getMessage(), Project.MSG_VERBOSE);
+                }
+            }
+            service.shutdown();
+        }
+    }
+
+    /* --- Private methods --- */
+
+    private boolean validate() {
+        if (StringUtils.isBlank(apiKey)) {
+            error("Missing API Key");
+            return false;
+        }
+        if (StringUtils.isBlank(product)) {
+            product = getProject().getName();
+        }
+        if (modules.isEmpty()) {
+            error("No modules to watch");
+            return false;
+        }
+        for (Module module : modules) {
+            if (StringUtils.isBlank(module.getName()) && StringUtils.isBlank(module.getToken())) {
+                error("Expecting module name or token");
+                return false;
+            }
+            if (module.getPaths().isEmpty()) {
+                error("Path not set");
+                return false;
+            }
+        }
+        if (threads < 1) {
+            error("Threads must be a positive number");
+            threads = 1;
+        }
+        if (debounce < 1) {
+            error("Debounce must be a positive number of seconds");
+            return false;
+        }
+        if (duration < 0) {
+            error("Duration can not be negative");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits for changes and sends an update once no change was seen for the debounce period, or once changes
+     * kept coming for ten times that period.
+     */
+    private void watch() throws InterruptedException {
+        long debounceMillis = TimeUnit.SECONDS.toMillis(debounce);
+        long end = duration > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(duration) : Long.MAX_VALUE;
+        long firstChange = 0;
+        long lastChange = 0;
+
+        long now;
+        while ((now = System.currentTimeMillis()) < end) {
+            boolean pending = !changedModules.isEmpty() || updateFailed;
+            long timeout = pending ? Math.max(1, lastChange + debounceMillis - now) : IDLE_POLL_MILLIS;
+            WatchKey key = watchService.poll(Math.min(timeout, end - now), TimeUnit.MILLISECONDS);
+            now = System.currentTimeMillis();
+            if (key != null) {
+                do {
+                    handleEvents(key);
+                } while ((key = watchService.poll()) != null);
+                if (!pending) {
+                    firstChange = now;
+                }
+                lastChange = now;
+            }
+
+            pending = !changedModules.isEmpty() || updateFailed;
+            if (pending && (now - lastChange >= debounceMillis || now - firstChange >= debounceMillis * MAX_DELAY_FACTOR)) {
+                update();
+                firstChange = now;
+                lastChange = now;
+            }
+        }
+
+        if (!changedModules.isEmpty() || updateFailed) {
+            update();
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        java.nio.file.Path dir = (java.nio.file.Path) key.watchable();
+        Set<Integer> moduleIndexes = watchedDirs.get(dir);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, compare all files by length and modification time
+                log("Too many changes to track individually, checking all modules", Project.MSG_VERBOSE);
+                for (int i = 0; i < watchedModules.size(); i++) {
+                    changedModules.add(i);
+                }
+                continue;
+            }
+
+            java.nio.file.Path child = dir.resolve((java.nio.file.Path) event.context());
+            log("Detected " + event.kind().name() + " of " + child, Project.MSG_DEBUG);
+            changedFiles.add(child.toFile().getAbsoluteFile());
+            if (moduleIndexes != null) {
+                changedModules.addAll(moduleIndexes);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                    for (Integer moduleIndex : moduleIndexes) {
+                        registerQuietly(child, moduleIndex);
+                    }
+                }
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(dir);
+        }
+    }
+
+    /**
+     * Lists the changed modules again, fingerprints their new and changed files and sends the modules
+     * whose dependencies changed.
+     */
+    private void update() {
+        moduleScanner.setContentIndex(new ContentIndex());
+        List<WatchedModule> toSend = new ArrayList<WatchedModule>();
+        int fingerprinted = 0;
+        for (int i = 0; i < watchedModules.size(); i++) {
+            WatchedModule watchedModule = watchedModules.get(i);
+            if (changedModules.contains(i)) {
+                fingerprinted += refresh(watchedModule);
+            }
+            if (!watchedModule.getDigest().equals(watchedModule.sentDigest)) {
+                toSend.add(watchedModule);
+            }
+        }
+        changedModules.clear();
+        changedFiles.clear();
+
+        if (toSend.isEmpty()) {
+            log("Fingerprinted " + fingerprinted + " changed files, no dependency changed", Project.MSG_VERBOSE);
+            return;
+        }
+
+        log("Fingerprinted " + fingerprinted + " changed files, updating White Source with " + toSend.size() + " modules");
+        List<AgentProjectInfo> projectInfos = new ArrayList<AgentProjectInfo>();
+        for (WatchedModule watchedModule : toSend) {
+            projectInfos.add(watchedModule.toProjectInfo());
+        }
+        InventorySubmitter submitter = new InventorySubmitter(service, apiKey, product, productVersion, batchSize, null);
+        try {
+            submitter.submit(projectInfos);
+            for (WatchedModule watchedModule : toSend) {
+                watchedModule.sentDigest = watchedModule.getDigest();
+            }
+            submitter.getSummary().log(this);
+            updateFailed = false;
+        } catch (WssServiceException e) {
+            updateFailed = true;
+            log("A problem occurred while updating projects, will retry with the next update: " + e.getMessage(), Project.MSG_ERR);
+        }
+    }
+
+    /**
+     * Lists the files of the given module and fingerprints the ones created or modified since the last update.
+     *
+     * @return number of files fingerprinted.
+     */
+    private int refresh(WatchedModule watchedModule) {
+        Map<File, WatchedFile> files = new TreeMap<File, WatchedFile>();
+        List<File> toFingerprint = new ArrayList<File>();
+        for (File file : moduleScanner.listFiles(watchedModule.module)) {
+            WatchedFile watchedFile = watchedModule.files.get(file);
+            if (watchedFile == null || changedFiles.contains(file.getAbsoluteFile()) || watchedFile.isModified(file)) {
+                toFingerprint.add(file);
+            } else {
+                files.put(file, watchedFile);
+            }
+        }
+
+        Map<String, DependencyInfo> dependencies = new HashMap<String, DependencyInfo>();
+        for (DependencyInfo dependency : moduleScanner.createDependencyInfos(toFingerprint)) {
+            dependencies.put(dependency.getSystemPath(), dependency);
+        }
+        for (File file : toFingerprint) {
+            DependencyInfo dependency = dependencies.get(file.getAbsolutePath());
+            if (dependency != null) {
+                files.put(file, new WatchedFile(file, dependency));
+            }
+        }
+        watchedModule.files = files;
+        return toFingerprint.size();
+    }
+
+    /**
+     * @return the base directories of the file sets of the module paths, and the directories of single files.
+     */
+    private Set<java.nio.file.Path> getRoots(Module module) {
+        Set<java.nio.file.Path> roots = new LinkedHashSet<java.nio.file.Path>();
+        for (Path path : module.getPaths()) {
+            Iterator resources = path.iterator();
+            while (resources.hasNext()) {
+                Object resource = resources.next();
+                if (resource instanceof FileResource) {
+                    FileResource fileResource = (FileResource) resource;
+                    File root = fileResource.getBaseDir() == null
+                            ? fileResource.getFile().getAbsoluteFile().getParentFile()
+                            : fileResource.getBaseDir();
+                    if (root != null) {
+                        roots.add(root.getAbsoluteFile().toPath());
+                    }
+                }
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * Watches the given directory and its subdirectories, except the directories excluded by ant's default excludes.
+     */
+    private void register(java.nio.file.Path root, final int moduleIndex) throws IOException {
+        final DefaultExcludes defaultExcludes = new DefaultExcludes();
+        Files.walkFileTree(root, new SimpleFileVisitor<java.nio.file.Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(java.nio.file.Path dir, BasicFileAttributes attrs) throws IOException {
+                java.nio.file.Path name = dir.getFileName();
+                if (name != null && defaultExcludes.excludesDirectory(name.toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                Set<Integer> moduleIndexes = watchedDirs.get(dir);
+                if (moduleIndexes == null) {
+                    dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    moduleIndexes = new TreeSet<Integer>();
+                    watchedDirs.put(dir, moduleIndexes);
+                }
+                moduleIndexes.add(moduleIndex);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(java.nio.file.Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void registerQuietly(java.nio.file.Path dir, int moduleIndex) {
+        try {
+            register(dir, moduleIndex);
+        } catch (IOException e) {
+            log("Failed to watch " + dir + ": " + e.getMessage(), Project.MSG_WARN);
+        }
+    }
+
+    private void error(String errorMsg) {
+        if (failOnError) {
+            throw new BuildException(errorMsg);
+        } else {
+            log(errorMsg, Project.MSG_ERR);
+        }
+    }
+
+    /* --- Property set methods --- */
+
+    public void setFailonerror(boolean failonerror) {
+        this.failOnError = failonerror;
+    }
+
+    public void setApikey(String apikey) {
+        this.apiKey = apikey;
+    }
+
+    public void setWssurl(String wssurl) {
+        this.wssUrl = wssurl;
+    }
+
+    public void setProduct(String product) {
+        this.product = product;
+    }
+
+    public void setProductVersion(String productVersion) {
+        this.productVersion = productVersion;
+    }
+
+    public void addModule(Module module) {
+        modules.add(module);
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setBatchsize(int batchsize) {
+        this.batchSize = batchsize;
+    }
+
+    public void setDebounce(int debounce) {
+        this.debounce = debounce;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    /* --- Nested classes --- */
+
+    /**
+     * Module and the fingerprints of its files.
+     */
+    private static class WatchedModule {
+
+        private final Module module;
+
+        private final AgentProjectInfo projectInfo;
+
+        private Map<File, WatchedFile> files;
+
+        /**
+         * Digest of the dependencies last sent, null if the module was never sent.
+         */
+        private String sentDigest;
+
+        private WatchedModule(Module module, AgentProjectInfo projectInfo) {
+            this.module = module;
+            this.projectInfo = projectInfo;
+            this.files = new TreeMap<File, WatchedFile>();
+        }
+
+        private AgentProjectInfo toProjectInfo() {
+            projectInfo.getDependencies().clear();
+            for (WatchedFile watchedFile : files.values()) {
+                projectInfo.getDependencies().add(watchedFile.dependency);
+            }
+            return projectInfo;
+        }
+
+        private String getDigest() {
+            return InventoryManifest.digest(toProjectInfo());
+        }
+    }
+
+    /**
+     * Fingerprint of a file, with the file attributes it was calculated for.
+     */
+    private static class WatchedFile {
+
+        private final long length;
+
+        private final long lastModified;
+
+        private final DependencyInfo dependency;
+
+        private WatchedFile(File file, DependencyInfo dependency) {
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.dependency = dependency;
+        }
+
+        private boolean isModified(File file) {
+            return file.length() != length || file.lastModified() != lastModified;
+        }
+    }
+}